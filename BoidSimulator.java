@@ -1,152 +1,258 @@
-///******************************************************************************
-// *  Compilation:  javac BoidSimulator.java
-// *  Execution:    java BoidSimuator
-// *  Dependencies: KdTreeST.java Boid.java Hawk.java
-// *
-// *  Implementation of a boid simulator using the KdTreeST data type,
-// *  supplemented with the method nearest(Point2D p, int k).
-// *
-// *  Note: This code is a bit hacked together. Apologies for any messy
-// *  code. Interactivity features and other tweaks by Evan Sparano (Fall 2013).
-// *
-// *  Instructions for using the boid simulator:
-// *      Press "o" to zoom out.
-// *      Press "i" to zoom in.
-// *      Press "t" to track the center of mass of all boids.
-// *      Press "h" to track the hawk.
-// *      Press "m" to manually control the camera.
-// *      While in "manual" mode, use arrow keys to control camera movement.
-// *
-// ******************************************************************************/
-//
-//import edu.princeton.cs.algs4.Point2D;
-//import edu.princeton.cs.algs4.Queue;
-//import edu.princeton.cs.algs4.StdDraw;
-//import edu.princeton.cs.algs4.StdRandom;
-//
-//import java.awt.event.KeyEvent;
-//
-//public class BoidSimulator {
-//
-//    // mode selection constants
-//    private static final char MANUAL_MODE   = 'm';
-//    private static final char TRACKING_MODE = 't';
-//    private static final char HAWK_MODE     = 'h';
-//
-//    // camera movement constants
-//    private static final double ZOOM_FACTOR = 1.1;
-//    private static final double CAMERA_SPEED = 0.05;
-//
-//    private static char mode = TRACKING_MODE; // start in "tracking" mode
-//
-//    private static Iterable<Boid> lookUpBoids(KdTreeST<Boid> bkd, Iterable<Point2D> points) {
-//        Queue<Boid> values = new Queue<Boid>();
-//        for (Point2D p : points) {
-//            values.enqueue(bkd.get(p));
-//        }
-//        return values;
-//    }
-//
-//    public static void main(String[] args) {
-//        Hawk hawk = new Hawk(0.5, 0.3);
-//        StdDraw.show(20);
-//        int NUM_BOIDS = 1000;
-//
-//        // Each boid tracks a number of nearest neighbors equal to FRIENDS
-//        int FRIENDS = 10;
-//        Boid[] boids = new Boid[NUM_BOIDS];
-//        double meanX, meanY;
-//        double radius = 0.5;
-//        double currentX = 0.5;
-//        double currentY = 0.5;
-//
-//        // Generate random boids.
-//        for (int i = 0; i < NUM_BOIDS; i++) {
-//            double startX = StdRandom.uniform();
-//            double startY = StdRandom.uniform();
-//            double velX = (StdRandom.uniform() - 0.5)/1000;
-//            double velY = (StdRandom.uniform() - 0.5)/1000;
-//            boids[i] = new Boid(startX, startY, velX, velY);
-//        }
-//
-//        while (true) {
-//            // process keyboard input
-//            if (StdDraw.isKeyPressed(KeyEvent.VK_I)) // press "i" to zoom in
-//                radius *= 1/ZOOM_FACTOR;
-//            if (StdDraw.isKeyPressed(KeyEvent.VK_O)) // press "o" to zoom out
-//                radius *= ZOOM_FACTOR;
-//            if (StdDraw.isKeyPressed(KeyEvent.VK_M)) // press "m" to enter
-//                mode = MANUAL_MODE;                  // "manual" mode
-//            if (StdDraw.isKeyPressed(KeyEvent.VK_H)) // press "h" to enter
-//                mode = HAWK_MODE;                    // "hawk" mode
-//            if (StdDraw.isKeyPressed(KeyEvent.VK_T)) // press "t" to enter
-//                mode = TRACKING_MODE;                // "tracking" mode
-//
-//            // scale pen radius relative to zoom
-//            StdDraw.setPenRadius(0.01*(0.5/radius));
-//            StdDraw.setXscale(currentX - radius, currentX + radius);
-//            StdDraw.setYscale(currentY - radius, currentY + radius);
-//
-//            // draw all boids and calculate their meanX and meanY
-//            meanX = 0;
-//            meanY = 0;
-//            for (int i = 0; i < NUM_BOIDS; i++) {
-//                meanX += boids[i].x()/NUM_BOIDS;
-//                meanY += boids[i].y()/NUM_BOIDS;
-//                boids[i].draw();
-//            }
-//
-//            // draw the hawk
-//            hawk.draw();
-//
-//            // follow center of mass in tracking mode
-//            if (mode == TRACKING_MODE) {
-//                currentX = meanX;
-//                currentY = meanY;
-//            }
-//            // allow user to control movement in manual mode
-//            else if (mode == MANUAL_MODE) {
-//                // press "up arrow" to pan upwards
-//                if (StdDraw.isKeyPressed(KeyEvent.VK_UP))
-//                    currentY += radius*CAMERA_SPEED;
-//                // press "down arrow" to pan downwards
-//                if (StdDraw.isKeyPressed(KeyEvent.VK_DOWN))
-//                    currentY -= radius*CAMERA_SPEED;
-//                // press "left arrow" to pan to the left
-//                if (StdDraw.isKeyPressed(KeyEvent.VK_LEFT))
-//                    currentX -= radius*CAMERA_SPEED;
-//                // press "right arrow" to pan to the right
-//                if (StdDraw.isKeyPressed(KeyEvent.VK_RIGHT))
-//                    currentX += radius*CAMERA_SPEED;
-//            }
-//            // follow hawk in hawk mode
-//            else if (mode == HAWK_MODE) {
-//                currentX = hawk.x();
-//                currentY = hawk.y();
-//            }
-//
-//            // The entire KdTreeST must be rebuilt every frame. Since the boids
-//            // are random, we expect a roughly balanced tree, despite the
-//            // lack of balancing in KdTreeST.
-//
-//            KdTreeST<Boid> bkd = new KdTreeST<Boid>();
-//            for (int i = 0; i < NUM_BOIDS; i++) {
-//                bkd.put(boids[i].position(), boids[i]);
-//            }
-//
-//            for (int i = 0; i < NUM_BOIDS; i++) {
-//                Iterable<Point2D> kNearestPoints = bkd.nearest(boids[i].position(), FRIENDS);
-//                Iterable<Boid> kNearest = lookUpBoids(bkd, kNearestPoints);
-//                boids[i].updatePositionAndVelocity(kNearest, hawk);
-//            }
-//
-//            // The hawk will chase the nearest boid.
-//            Boid closestBoid = bkd.get(bkd.nearest(hawk.position()));
-//            hawk.updatePositionAndVelocity(closestBoid);
-//
-//            //hawk.updatePositionAndVelocity(bkd.nearest(new Boid(hawk.x(), hawk.y())));
-//            StdDraw.show(20);
-//            StdDraw.clear();
-//        }
-//    }
-//}
\ No newline at end of file
+/******************************************************************************
+ *  Compilation:  javac BoidSimulator.java
+ *  Execution:    java BoidSimulator [NUM_BOIDS] [FRIENDS]
+ *                java BoidSimulator -headless FRAMES [NUM_BOIDS] [FRIENDS] [SEED]
+ *  Dependencies: KdTreeST.java KNearestGraph.java Boid.java Hawk.java
+ *
+ *  Implementation of a boid simulator using the KdTreeST data type,
+ *  supplemented with the method allKNearest(int k).
+ *
+ *  Note: This code is a bit hacked together. Apologies for any messy
+ *  code. Interactivity features and other tweaks by Evan Sparano (Fall 2013).
+ *
+ *  Instructions for using the boid simulator:
+ *      Press "o" to zoom out.
+ *      Press "i" to zoom in.
+ *      Press "t" to track the center of mass of all boids.
+ *      Press "h" to track the hawk.
+ *      Press "m" to manually control the camera.
+ *      While in "manual" mode, use arrow keys to control camera movement.
+ *
+ *  In headless mode nothing is drawn: the simulation runs FRAMES frames
+ *  from a fixed seed and reports the frame rate, split into the time
+ *  spent building the kd-tree, querying neighbors and updating boids.
+ *
+ *  % java BoidSimulator -headless 100 1000000 10
+ *
+ ******************************************************************************/
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.Queue;
+import edu.princeton.cs.algs4.StdDraw;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+
+import java.awt.event.KeyEvent;
+
+public class BoidSimulator {
+
+    // mode selection constants
+    private static final char MANUAL_MODE   = 'm';
+    private static final char TRACKING_MODE = 't';
+    private static final char HAWK_MODE     = 'h';
+
+    // camera movement constants
+    private static final double ZOOM_FACTOR = 1.1;
+    private static final double CAMERA_SPEED = 0.05;
+
+    private static char mode = TRACKING_MODE; // start in "tracking" mode
+
+    // nanoseconds spent in each phase of step() so far
+    private static long buildTime, queryTime, updateTime;
+
+    // Advance every boid and the hawk by one frame. Each boid's neighbors
+    // are itself followed by its FRIENDS - 1 nearest other boids, all found
+    // from the positions at the start of the frame.
+    private static void step(Boid[] boids, Hawk hawk, int friends) {
+        int n = boids.length;
+
+        // The entire KdTreeST must be rebuilt every frame, so it is bulk
+        // loaded into a balanced tree rather than built by n insertions.
+        long start = System.nanoTime();
+        Point2D[] points = new Point2D[n];
+        Integer[] ids = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            points[i] = boids[i].position();
+            ids[i] = i;
+        }
+        KdTreeST<Integer> bkd = new KdTreeST<>(points, ids);
+        long built = System.nanoTime();
+
+        // friendsOf[i * friends + j] is the j-th neighbor of boid i, or -1
+        int[] friendsOf = new int[n * friends];
+        boolean[] found = new boolean[n];
+        KNearestGraph<Integer> graph = bkd.allKNearest(friends - 1);
+        for (int v = 0; v < graph.size(); v++) {
+            int i = graph.value(v);
+            friendsOf[i * friends] = i;
+            for (int j = 1; j < friends; j++) {
+                int w = graph.neighbor(v, j - 1);
+                friendsOf[i * friends + j] = w < 0 ? -1 : graph.value(w);
+            }
+            found[i] = true;
+        }
+
+        // boids sharing a position with another boid are not in the graph
+        for (int i = 0; i < n; i++) {
+            if (found[i]) continue;
+            friendsOf[i * friends] = i;
+            int j = 1;
+            for (Point2D p : bkd.nearest(boids[i].position(), friends)) {
+                int w = bkd.get(p);
+                if (w != i && j < friends)
+                    friendsOf[i * friends + j++] = w;
+            }
+            while (j < friends)
+                friendsOf[i * friends + j++] = -1;
+        }
+
+        // The hawk will chase the nearest boid.
+        Boid closestBoid = boids[bkd.get(bkd.nearest(hawk.position()))];
+        long queried = System.nanoTime();
+
+        for (int i = 0; i < n; i++) {
+            Queue<Boid> kNearest = new Queue<Boid>();
+            for (int j = 0; j < friends; j++) {
+                int w = friendsOf[i * friends + j];
+                if (w >= 0) kNearest.enqueue(boids[w]);
+            }
+            boids[i].updatePositionAndVelocity(kNearest, hawk);
+        }
+        hawk.updatePositionAndVelocity(closestBoid);
+        long updated = System.nanoTime();
+
+        buildTime  += built - start;
+        queryTime  += queried - built;
+        updateTime += updated - queried;
+    }
+
+    // Generate random boids.
+    private static Boid[] randomBoids(int n) {
+        Boid[] boids = new Boid[n];
+        for (int i = 0; i < n; i++) {
+            double startX = StdRandom.uniform();
+            double startY = StdRandom.uniform();
+            double velX = (StdRandom.uniform() - 0.5)/1000;
+            double velY = (StdRandom.uniform() - 0.5)/1000;
+            boids[i] = new Boid(startX, startY, velX, velY);
+        }
+        return boids;
+    }
+
+    // Run the simulation without drawing and report where the time went.
+    private static void headless(int frames, int NUM_BOIDS, int FRIENDS, long seed) {
+        StdRandom.setSeed(seed);
+        Hawk hawk = new Hawk(0.5, 0.3);
+        Boid[] boids = randomBoids(NUM_BOIDS);
+
+        long start = System.nanoTime();
+        for (int frame = 0; frame < frames; frame++)
+            step(boids, hawk, FRIENDS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        // the center of mass identifies the run, so runs with the same seed can be compared
+        double meanX = 0, meanY = 0;
+        for (Boid b : boids) {
+            meanX += b.x() / NUM_BOIDS;
+            meanY += b.y() / NUM_BOIDS;
+        }
+
+        StdOut.printf("%d boids, %d friends, %d frames, seed %d\n", NUM_BOIDS, FRIENDS, frames, seed);
+        StdOut.printf("%.2f frames per second\n", frames / seconds);
+        StdOut.printf("build  %10.3f ms per frame\n", buildTime / 1e6 / frames);
+        StdOut.printf("query  %10.3f ms per frame\n", queryTime / 1e6 / frames);
+        StdOut.printf("update %10.3f ms per frame\n", updateTime / 1e6 / frames);
+        StdOut.printf("center of mass %.12f %.12f\n", meanX, meanY);
+    }
+
+    //  prints how to run the simulator
+    private static void usage() {
+        StdOut.println("usage: java BoidSimulator [NUM_BOIDS] [FRIENDS]");
+        StdOut.println("       java BoidSimulator -headless FRAMES [NUM_BOIDS] [FRIENDS] [SEED]");
+        StdOut.println("NUM_BOIDS and FRIENDS must be at least 1, FRAMES at least 0");
+    }
+
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("-headless")) {
+            int frames = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+            int boids = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+            int friends = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+            long seed = args.length > 4 ? Long.parseLong(args[4]) : 0;
+            if (frames < 0 || boids < 1 || friends < 1) {
+                usage();
+                return;
+            }
+            headless(frames, boids, friends, seed);
+            return;
+        }
+
+        int NUM_BOIDS = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+
+        // Each boid tracks a number of nearest neighbors equal to FRIENDS
+        int FRIENDS = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        if (NUM_BOIDS < 1 || FRIENDS < 1) {
+            usage();
+            return;
+        }
+
+        Hawk hawk = new Hawk(0.5, 0.3);
+        StdDraw.show(20);
+        Boid[] boids = randomBoids(NUM_BOIDS);
+        double meanX, meanY;
+        double radius = 0.5;
+        double currentX = 0.5;
+        double currentY = 0.5;
+
+        while (true) {
+            // process keyboard input
+            if (StdDraw.isKeyPressed(KeyEvent.VK_I)) // press "i" to zoom in
+                radius *= 1/ZOOM_FACTOR;
+            if (StdDraw.isKeyPressed(KeyEvent.VK_O)) // press "o" to zoom out
+                radius *= ZOOM_FACTOR;
+            if (StdDraw.isKeyPressed(KeyEvent.VK_M)) // press "m" to enter
+                mode = MANUAL_MODE;                  // "manual" mode
+            if (StdDraw.isKeyPressed(KeyEvent.VK_H)) // press "h" to enter
+                mode = HAWK_MODE;                    // "hawk" mode
+            if (StdDraw.isKeyPressed(KeyEvent.VK_T)) // press "t" to enter
+                mode = TRACKING_MODE;                // "tracking" mode
+
+            // scale pen radius relative to zoom
+            StdDraw.setPenRadius(0.01*(0.5/radius));
+            StdDraw.setXscale(currentX - radius, currentX + radius);
+            StdDraw.setYscale(currentY - radius, currentY + radius);
+
+            // draw all boids and calculate their meanX and meanY
+            meanX = 0;
+            meanY = 0;
+            for (int i = 0; i < NUM_BOIDS; i++) {
+                meanX += boids[i].x()/NUM_BOIDS;
+                meanY += boids[i].y()/NUM_BOIDS;
+                boids[i].draw();
+            }
+
+            // draw the hawk
+            hawk.draw();
+
+            // follow center of mass in tracking mode
+            if (mode == TRACKING_MODE) {
+                currentX = meanX;
+                currentY = meanY;
+            }
+            // allow user to control movement in manual mode
+            else if (mode == MANUAL_MODE) {
+                // press "up arrow" to pan upwards
+                if (StdDraw.isKeyPressed(KeyEvent.VK_UP))
+                    currentY += radius*CAMERA_SPEED;
+                // press "down arrow" to pan downwards
+                if (StdDraw.isKeyPressed(KeyEvent.VK_DOWN))
+                    currentY -= radius*CAMERA_SPEED;
+                // press "left arrow" to pan to the left
+                if (StdDraw.isKeyPressed(KeyEvent.VK_LEFT))
+                    currentX -= radius*CAMERA_SPEED;
+                // press "right arrow" to pan to the right
+                if (StdDraw.isKeyPressed(KeyEvent.VK_RIGHT))
+                    currentX += radius*CAMERA_SPEED;
+            }
+            // follow hawk in hawk mode
+            else if (mode == HAWK_MODE) {
+                currentX = hawk.x();
+                currentY = hawk.y();
+            }
+
+            step(boids, hawk, FRIENDS);
+
+            StdDraw.show(20);
+            StdDraw.clear();
+        }
+    }
+}
@@ -0,0 +1,286 @@
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.SET;
+
+/**
+ *  A read-only kd-tree symbol table, as created by {@link KdTreeST#compact()},
+ *  that keeps the coordinates it traverses as 31-bit fixed-point offsets
+ *  within the bounding box of its points. The nodes are stored in preorder,
+ *  so a left child is the next slot and only the right child needs a link:
+ *  the hot part of a node is three ints, against a node object, a Point2D
+ *  and four doubles of bounding box in a KdTreeST. The exact coordinates
+ *  sit in separate arrays and are read only when the fixed-point values
+ *  cannot decide a comparison.
+ *
+ *  Scaling is monotone, so a fixed-point value that differs from the scaled
+ *  query settles a comparison exactly, and the cells used for pruning are
+ *  widened to the edges of their quanta. Queries therefore visit the nodes a
+ *  KdTreeST would, in the same order, plus a few more, and return the same
+ *  points. Orientations alternate from a vertical root, as in KdTreeST.
+ */
+public class CompactKdTreeST<Value> {
+
+    private static final int MAX = Integer.MAX_VALUE;   // largest fixed-point value
+    private static final int NIL = -1;
+
+    private final int N;
+    private final double xmin, ymin, xmax, ymax;    // bounding box of the points
+    private final double xscale, yscale;            // fixed-point units per unit of length
+
+    //  hot: fixed-point coordinates and links, read at every visited node
+    private final int[] qx, qy;
+    private final int[] link;   // 2 * (right child slot + 1), plus 1 if there is a left child
+
+    //  cold: exact coordinates and values, read to settle a comparison or report a point
+    private final double[] xs, ys;
+    private final Value[] vals;
+
+
+    @SuppressWarnings("unchecked")
+    CompactKdTreeST(int N, double xmin, double ymin, double xmax, double ymax) {
+        this.N = N;
+        this.xmin = xmin;
+        this.ymin = ymin;
+        this.xmax = xmax;
+        this.ymax = ymax;
+        xscale = scale(xmin, xmax);
+        yscale = scale(ymin, ymax);
+        qx = new int[N];
+        qy = new int[N];
+        link = new int[N];
+        xs = new double[N];
+        ys = new double[N];
+        vals = (Value[]) new Object[N];
+    }
+
+    //  units per unit of length over [min, max], coarse enough that rounding
+    //  in (v - min) * scale stays well below one unit for every v in the box
+    private static double scale(double min, double max) {
+        double magnitude = Math.max(Math.abs(min), Math.abs(max));
+        double scale = Math.min(MAX / (max - min), 0.25 / Math.ulp(magnitude));
+        return scale < Double.POSITIVE_INFINITY ? scale : 1.0;
+    }
+
+    //  stores the node at the given slot, as laid out in preorder
+    void set(int slot, Point2D p, Value val, boolean hasLeft, int right) {
+        xs[slot] = p.x();
+        ys[slot] = p.y();
+        qx[slot] = quantize(fx(p.x()));
+        qy[slot] = quantize(fy(p.y()));
+        vals[slot] = val;
+        link[slot] = 2 * (right + 1) + (hasLeft ? 1 : 0);
+    }
+
+    private static int quantize(double f) {
+        return (int) Math.max(0, Math.min(MAX, f));
+    }
+
+    //  the monotone scaling, unclamped, so that queries outside the box compare correctly
+    private double fx(double x) {
+        return (x - xmin) * xscale;
+    }
+
+    private double fy(double y) {
+        return (y - ymin) * yscale;
+    }
+
+    private int left(int slot) {
+        return (link[slot] & 1) != 0 ? slot + 1 : NIL;
+    }
+
+    private int right(int slot) {
+        return (link[slot] >>> 1) - 1;
+    }
+
+
+    /**
+     * Is this symbol table empty?
+     * @return <tt>true</tt> if this symbol table is empty and <tt>false</tt> otherwise
+     */
+    public boolean isEmpty() {
+        return N == 0;
+    }
+
+    /**
+     * Returns the number of point-value pairs in this symbol table.
+     * @return the number of point-value pairs in this symbol table
+     */
+    public int size() {
+        return N;
+    }
+
+
+    //  throws a NullPointerException if parameter is null
+    private static void verify(Object o) {
+        if (o == null)
+            throw new java.lang.NullPointerException();
+    }
+
+
+    /***************************************************************************
+     *  Fixed-point comparisons.
+     ***************************************************************************/
+
+    //  compares the node at slot with the scaled query coordinate f, whose
+    //  exact value is v, along one axis: positive if the node lies right of
+    //  or above the query, as KdTreeST's compareTo. A scaled value below the
+    //  quantum of the node means the query is smaller, one at or past the
+    //  next quantum means it is larger; only within the quantum is the
+    //  exact coordinate read
+    private int compare(int q, double exact, double f, double v) {
+        if (f < q)      return  1;
+        if (f >= q + 1) return -1;
+        return exact > v ? 1 : exact < v ? -1 : 0;
+    }
+
+    private int compareTo(int slot, boolean vertical, double fx, double fy, double px, double py) {
+        return vertical ? compare(qx[slot], xs[slot], fx, px)
+                        : compare(qy[slot], ys[slot], fy, py);
+    }
+
+    //  lowest and highest coordinates a point with fixed-point value q can
+    //  have, widened by a quantum on either side to absorb rounding
+    private double loX(int q) { return xmin + (q - 1.0) / xscale; }
+    private double hiX(int q) { return xmin + (q + 2.0) / xscale; }
+    private double loY(int q) { return ymin + (q - 1.0) / yscale; }
+    private double hiY(int q) { return ymin + (q + 2.0) / yscale; }
+
+
+    /***************************************************************************
+     *  Search.
+     ***************************************************************************/
+
+    /**
+     * Returns the value associated with the given point.
+     * @param p the point
+     * @return the value associated with the given point if the point is in the symbol table
+     *     and <tt>null</tt> if the point is not in the symbol table
+     * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+     */
+    public Value get(Point2D p) {
+        verify(p);
+        int slot = find(p);
+        return slot == NIL ? null : vals[slot];
+    }
+
+    /**
+     * Does this symbol table contain the given point?
+     * @param p the point
+     * @return <tt>true</tt> if this symbol table contains <tt>p</tt> and
+     *     <tt>false</tt> otherwise
+     * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+     */
+    public boolean contains(Point2D p) {
+        verify(p);
+        return find(p) != NIL;
+    }
+
+    //  slot of point p; NIL if there is none
+    private int find(Point2D p) {
+        double px = p.x(), py = p.y(), fx = fx(px), fy = fy(py);
+        int qpx = quantize(fx), qpy = quantize(fy);
+        boolean vertical = true;
+        int x = N == 0 ? NIL : 0;
+        while (x != NIL) {
+            if (qx[x] == qpx && qy[x] == qpy && xs[x] == px && ys[x] == py)
+                return x;
+            x = compareTo(x, vertical, fx, fy, px, py) > 0 ? left(x) : right(x);
+            vertical = !vertical;
+        }
+        return NIL;
+    }
+
+
+    /**
+     * Returns all points that are inside the rectangle.
+     * @return all keys that are inside the rectangle <tt>rect</tt> as
+     * an <tt>Iterable</tt>
+     * @throws NullPointerException if <tt>rect</tt> is <tt>null</tt>
+     */
+    public Iterable<Point2D> range(RectHV rect) {
+        verify(rect);
+        SET<Point2D> set = new SET<>();
+        if (N > 0) range(0, true, rect, set, xmin, ymin, xmax, ymax);
+        return set;
+    }
+
+    //  cells are bounded by the widened edges of the splits, so they contain
+    //  every point of their subtree
+    private void range(int x, boolean vertical, RectHV rect, SET<Point2D> set,
+                       double xmin, double ymin, double xmax, double ymax) {
+        if (x == NIL || xmax < rect.xmin() || xmin > rect.xmax()
+                     || ymax < rect.ymin() || ymin > rect.ymax())
+            return;
+
+        //  the quantized test screens the point before its exact coordinates
+        //  are read, and the Point2D is made only for a hit
+        if (hiX(qx[x]) >= rect.xmin() && loX(qx[x]) <= rect.xmax()
+                && hiY(qy[x]) >= rect.ymin() && loY(qy[x]) <= rect.ymax()
+                && xs[x] >= rect.xmin() && xs[x] <= rect.xmax()
+                && ys[x] >= rect.ymin() && ys[x] <= rect.ymax())
+            set.add(new Point2D(xs[x], ys[x]));
+
+        if (vertical) {
+            range(left(x),  false, rect, set, xmin, ymin, Math.min(xmax, hiX(qx[x])), ymax);
+            range(right(x), false, rect, set, Math.max(xmin, loX(qx[x])), ymin, xmax, ymax);
+        } else {
+            range(left(x),  true, rect, set, xmin, ymin, xmax, Math.min(ymax, hiY(qy[x])));
+            range(right(x), true, rect, set, xmin, Math.max(ymin, loY(qy[x])), xmax, ymax);
+        }
+    }
+
+
+    /**
+     * Returns a nearest neighbor in the symbol table to point p; the same
+     * point as <tt>nearest</tt> on the KdTreeST this copy was made from.
+     * @return a nearest neighbor in the symbol table to point <tt>p</tt>;
+     *     <tt>null</tt> if the symbol table is empty
+     * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+     */
+    public Point2D nearest(Point2D p) {
+        verify(p);
+        if (N == 0) return null;
+        double[] best = { Double.POSITIVE_INFINITY, NIL };  // squared distance, slot
+        double px = p.x(), py = p.y();
+        nearest(0, true, px, py, fx(px), fy(py), best, xmin, ymin, xmax, ymax);
+        int champion = (int) best[1];
+        return new Point2D(xs[champion], ys[champion]);
+    }
+
+    private void nearest(int x, boolean vertical, double px, double py, double fx, double fy,
+                         double[] best, double xmin, double ymin, double xmax, double ymax) {
+        if (x == NIL || StaticKdTreeST.distanceSquared(px, py, xmin, ymin, xmax, ymax) > best[0])
+            return;
+
+        //  the exact point is read only if its quantum could hold a closer one
+        int qpx = qx[x], qpy = qy[x];
+        if (StaticKdTreeST.distanceSquared(px, py, loX(qpx), loY(qpy), hiX(qpx), hiY(qpy)) < best[0]) {
+            double dx = xs[x] - px, dy = ys[x] - py;
+            double distance = dx * dx + dy * dy;
+            if (distance < best[0]) {
+                best[0] = distance;
+                best[1] = x;
+            }
+        }
+        if (best[0] == 0)
+            return;
+
+        int lb = left(x), rt = right(x);
+        double lbXmax = xmax, lbYmax = ymax, rtXmin = xmin, rtYmin = ymin;
+        if (vertical) {
+            lbXmax = Math.min(xmax, hiX(qpx));
+            rtXmin = Math.max(xmin, loX(qpx));
+        } else {
+            lbYmax = Math.min(ymax, hiY(qpy));
+            rtYmin = Math.max(ymin, loY(qpy));
+        }
+
+        if (compareTo(x, vertical, fx, fy, px, py) > 0) {
+            nearest(lb, !vertical, px, py, fx, fy, best, xmin, ymin, lbXmax, lbYmax);
+            nearest(rt, !vertical, px, py, fx, fy, best, rtXmin, rtYmin, xmax, ymax);
+        } else {
+            nearest(rt, !vertical, px, py, fx, fy, best, rtXmin, rtYmin, xmax, ymax);
+            nearest(lb, !vertical, px, py, fx, fy, best, xmin, ymin, lbXmax, lbYmax);
+        }
+    }
+}
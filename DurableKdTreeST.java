@@ -0,0 +1,582 @@
+/******************************************************************************
+ *  Compilation:  javac DurableKdTreeST.java
+ *  Execution:    java DurableKdTreeST directory input.txt
+ *  Dependencies: KdTreeST.java StaticKdTreeST.java
+ *
+ *  Recover the symbol table kept in the directory, print how long that
+ *  took, then durably put each point of the input file with its line
+ *  number and print the rate.
+ *
+ ******************************************************************************/
+
+import edu.princeton.cs.algs4.In;
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.StdOut;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ *  A {@link KdTreeST} that survives restarts. Every <tt>put</tt> is
+ *  appended to a write-ahead log in a directory and returns once the log
+ *  is on disk; concurrent puts share a single <tt>fsync</tt> (group
+ *  commit). Every so many puts the whole table is written as a checkpoint,
+ *  which is renamed into place atomically, and the logs it covers are
+ *  deleted. Opening the directory bulk loads the checkpoint and replays the
+ *  log written since, so recovery reads at most one checkpoint interval of
+ *  log no matter how long the history. A torn record at the end of a log,
+ *  left by a crash during a write, is dropped.
+ *
+ *  A log record is the length of its payload, the payload (<em>x</em>,
+ *  <em>y</em>, a byte that is 1 if a value follows, and the value), and a
+ *  CRC-32 of the payload. Values are written by a {@link Codec}.
+ */
+public class DurableKdTreeST<Value> implements Closeable {
+
+    /**
+     *  Writes and reads the values of a durable symbol table. Neither method
+     *  sees a <tt>null</tt> value.
+     */
+    public interface Codec<Value> {
+        void write(DataOutput out, Value val) throws IOException;
+        Value read(DataInput in) throws IOException;
+    }
+
+    public static final Codec<Integer> INTEGERS = new Codec<Integer>() {
+        public void write(DataOutput out, Integer val) throws IOException { out.writeInt(val); }
+        public Integer read(DataInput in) throws IOException { return in.readInt(); }
+    };
+
+    public static final Codec<String> STRINGS = new Codec<String>() {
+        public void write(DataOutput out, String val) throws IOException { out.writeUTF(val); }
+        public String read(DataInput in) throws IOException { return in.readUTF(); }
+    };
+
+    private static final int LOG_MAGIC = 0x4B444C47;          // "KDLG"
+    private static final int CHECKPOINT_MAGIC = 0x4B444350;   // "KDCP"
+    private static final int MAX_RECORD = 1 << 24;           // longer lengths are torn writes
+    private static final String CHECKPOINT = "checkpoint";
+    private static final String LOG = "log.";
+
+    private final Path dir;
+    private final Codec<Value> codec;
+    private final long interval;            // puts between checkpoints
+    private KdTreeST<Value> tree;
+
+    //  the open log, guarded by this
+    private long generation;                // number of the open log file
+    private FileChannel channel;
+    private DataOutputStream log;
+    private long written;                   // records written to any log
+    private long sinceCheckpoint;           // records written since the last checkpoint
+    private boolean closed;
+
+    //  group commit, guarded by syncLock
+    private final Object syncLock = new Object();
+    private boolean syncing;                // a thread is forcing the log to disk
+    private long durable;                   // records known to be on disk
+
+    private final ReentrantLock checkpointLock = new ReentrantLock();
+
+
+    /**
+     * Opens the durable symbol table kept in the given directory, creating
+     * the directory if needed and recovering the pairs put before the last
+     * close or crash.
+     *
+     * @param dir the directory holding the checkpoint and the logs
+     * @param codec writes and reads the values
+     * @param interval the number of puts between automatic checkpoints
+     * @throws NullPointerException if <tt>dir</tt> or <tt>codec</tt> is <tt>null</tt>
+     * @throws IllegalArgumentException if <tt>interval</tt> is not positive
+     * @throws IOException if the directory cannot be read, or its checkpoint is corrupt
+     */
+    public DurableKdTreeST(Path dir, Codec<Value> codec, long interval) throws IOException {
+        verify(dir);
+        verify(codec);
+        if (interval <= 0)
+            throw new IllegalArgumentException("checkpoint interval must be positive");
+        this.dir = dir;
+        this.codec = codec;
+        this.interval = interval;
+        Files.createDirectories(dir);
+        recover();
+    }
+
+
+    //  throws a NullPointerException if parameter is null
+    private void verify(Object o) {
+        if (o == null)
+            throw new java.lang.NullPointerException();
+    }
+
+
+    /***************************************************************************
+     *  Recovery.
+     ***************************************************************************/
+
+    //  loads the checkpoint, replays the logs it does not cover in order,
+    //  deletes the logs it does and the empty ones, and opens a fresh log
+    //  after the last one
+    private void recover() throws IOException {
+        long first = 0;
+        Path checkpoint = dir.resolve(CHECKPOINT);
+        if (Files.exists(checkpoint)) first = readCheckpoint(checkpoint);
+        else                          tree = new KdTreeST<>();
+        Files.deleteIfExists(dir.resolve(CHECKPOINT + ".tmp"));
+
+        long last = first - 1;
+        for (long g : logs()) {
+            long applied = g < first ? 0 : replay(log(g));
+            if (applied == 0) {
+                Files.delete(log(g));       // covered by the checkpoint, or empty
+            } else {
+                sinceCheckpoint += applied;
+                last = g;
+            }
+        }
+        written = durable = sinceCheckpoint;
+        openLog(last + 1);
+    }
+
+    //  numbers of the log files in the directory, in increasing order
+    private List<Long> logs() throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, LOG + "*")) {
+            for (Path file : files) {
+                try {
+                    generations.add(Long.parseLong(file.getFileName().toString().substring(LOG.length())));
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+
+    private Path log(long generation) {
+        return dir.resolve(LOG + generation);
+    }
+
+    //  bulk loads the checkpoint into the tree; returns the first log it does not cover
+    @SuppressWarnings("unchecked")
+    private long readCheckpoint(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 1 << 16), crc))) {
+            if (in.readInt() != CHECKPOINT_MAGIC)
+                throw new IOException(file + " is not a checkpoint");
+            long next = in.readLong();
+            int n = in.readInt();
+            Point2D[] points = new Point2D[n];
+            Value[] vals = (Value[]) new Object[n];
+            for (int i = 0; i < n; i++) {
+                points[i] = new Point2D(in.readDouble(), in.readDouble());
+                vals[i] = in.readBoolean() ? codec.read(in) : null;
+            }
+            long expected = crc.getValue();
+            if (in.readLong() != expected)
+                throw new IOException(file + " is corrupt");
+            tree = new KdTreeST<>(points, vals);
+            return next;
+        }
+    }
+
+    //  applies the records of a log to the tree, truncating a torn tail;
+    //  returns the number of records applied
+    private long replay(Path file) throws IOException {
+        long applied = 0, good = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != LOG_MAGIC)
+                throw new IOException(file + " is not a log");
+            good = 4;
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length = in.readInt();
+                if (length < 0 || length > MAX_RECORD) break;
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                crc.reset();
+                crc.update(payload, 0, length);
+                if (in.readInt() != (int) crc.getValue()) break;
+
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                Point2D p = new Point2D(record.readDouble(), record.readDouble());
+                tree.put(p, record.readBoolean() ? codec.read(record) : null);
+                good += 8 + length;
+                applied++;
+            }
+        } catch (EOFException e) {
+            // a clean end, or a record cut short by a crash
+        }
+
+        if (good < Files.size(file)) {
+            try (FileChannel truncate = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                truncate.truncate(good);
+                truncate.force(true);
+            }
+        }
+        return applied;
+    }
+
+    private void openLog(long generation) throws IOException {
+        FileOutputStream file = new FileOutputStream(log(generation).toFile(), true);
+        this.generation = generation;
+        channel = file.getChannel();
+        log = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+        if (channel.size() == 0) log.writeInt(LOG_MAGIC);
+        log.flush();
+        channel.force(true);
+        syncDirectory();
+    }
+
+    //  makes file creations, renames and deletions in the directory durable
+    private void syncDirectory() {
+        try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            // not every platform can open a directory; its metadata is synced lazily there
+        }
+    }
+
+
+    /***************************************************************************
+     *  Queries, answered by the in-memory tree.
+     ***************************************************************************/
+
+    /**
+     * Is this symbol table empty?
+     * @return <tt>true</tt> if this symbol table is empty and <tt>false</tt> otherwise
+     */
+    public synchronized boolean isEmpty() {
+        return tree.isEmpty();
+    }
+
+    /**
+     * Returns the number of point-value pairs in this symbol table.
+     * @return the number of point-value pairs in this symbol table
+     */
+    public synchronized int size() {
+        return tree.size();
+    }
+
+    /**
+     * Returns the value associated with the given point.
+     * @param p the point
+     * @return the value associated with the given point if the point is in the symbol table
+     *     and <tt>null</tt> if the point is not in the symbol table
+     * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+     */
+    public synchronized Value get(Point2D p) {
+        return tree.contains(p) ? tree.get(p) : null;
+    }
+
+    /**
+     * Does this symbol table contain the given point?
+     * @param p the point
+     * @return <tt>true</tt> if this symbol table contains <tt>p</tt> and
+     *     <tt>false</tt> otherwise
+     * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+     */
+    public synchronized boolean contains(Point2D p) {
+        return tree.contains(p);
+    }
+
+    /**
+     * Returns all points that are inside the rectangle.
+     * @return all keys that are inside the rectangle <tt>rect</tt> as
+     * an <tt>Iterable</tt>
+     * @throws NullPointerException if <tt>rect</tt> is <tt>null</tt>
+     */
+    public synchronized Iterable<Point2D> range(RectHV rect) {
+        return tree.range(rect);
+    }
+
+    /**
+     * Returns a nearest neighbor in the symbol table to point p.
+     * @return a nearest neighbor in the symbol table to point <tt>p</tt>;
+     *     <tt>null</tt> if the symbol table is empty
+     * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+     */
+    public synchronized Point2D nearest(Point2D p) {
+        return tree.nearest(p);
+    }
+
+
+    /***************************************************************************
+     *  Logging.
+     ***************************************************************************/
+
+    /**
+     * Inserts the specified point-value pair into the symbol table, overwriting the old
+     * value with the new value if the symbol table already contains the specified point.
+     * Returns once the pair is in the log on disk; queries may see it a little
+     * earlier. The put that completes a checkpoint interval also writes the
+     * checkpoint, unless another thread is already writing one.
+     *
+     * @param p the point
+     * @param val the value
+     * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+     * @throws IllegalStateException if this symbol table is closed
+     * @throws UncheckedIOException if the log cannot be written
+     */
+    public void put(Point2D p, Value val) {
+        verify(p);
+        byte[] record = encode(p, val);
+        long seq;
+        boolean due;
+        synchronized (this) {
+            if (closed)
+                throw new IllegalStateException("symbol table is closed");
+            try {
+                log.write(record);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            tree.put(p, val);
+            seq = ++written;
+            due = ++sinceCheckpoint >= interval;
+        }
+        try {
+            sync(seq);
+            if (due && checkpointLock.tryLock()) {
+                try {
+                    checkpoint(false);
+                } finally {
+                    checkpointLock.unlock();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //  length, payload and CRC-32 of the log record for the pair
+    private byte[] encode(Point2D p, Value val) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+            DataOutputStream record = new DataOutputStream(bytes);
+            record.writeInt(0);
+            record.writeDouble(p.x());
+            record.writeDouble(p.y());
+            record.writeBoolean(val != null);
+            if (val != null) codec.write(record, val);
+            record.writeInt(0);
+
+            byte[] buf = bytes.toByteArray();
+            int length = buf.length - 8;
+            CRC32 crc = new CRC32();
+            crc.update(buf, 4, length);
+            writeInt(buf, 0, length);
+            writeInt(buf, buf.length - 4, (int) crc.getValue());
+            return buf;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeInt(byte[] buf, int at, int v) {
+        buf[at]     = (byte) (v >>> 24);
+        buf[at + 1] = (byte) (v >>> 16);
+        buf[at + 2] = (byte) (v >>> 8);
+        buf[at + 3] = (byte) v;
+    }
+
+    //  waits until the first seq records are on disk; the first waiting
+    //  thread forces the log for everyone who wrote before it, while the
+    //  threads arriving during that fsync queue up for the next one
+    private void sync(long seq) throws IOException {
+        synchronized (syncLock) {
+            while (durable < seq && syncing) {
+                try {
+                    syncLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted waiting for the log", e);
+                }
+            }
+            if (durable >= seq) return;
+            syncing = true;
+        }
+
+        long target = durable;
+        try {
+            FileChannel forced;
+            synchronized (this) {
+                log.flush();
+                target = written;
+                forced = channel;
+            }
+            forced.force(false);
+        } finally {
+            synchronized (syncLock) {
+                durable = Math.max(durable, target);
+                syncing = false;
+                syncLock.notifyAll();
+            }
+        }
+    }
+
+
+    /***************************************************************************
+     *  Checkpoints.
+     ***************************************************************************/
+
+    /**
+     * Writes a checkpoint of the whole symbol table and deletes the logs it
+     * covers. Puts continue into a new log while the checkpoint is written.
+     * @throws IOException if the checkpoint cannot be written
+     * @throws IllegalStateException if this symbol table is closed
+     */
+    public void checkpoint() throws IOException {
+        checkpointLock.lock();
+        try {
+            checkpoint(true);
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    //  rolls to a new log while holding the group commit, so no fsync is in
+    //  flight on the old one, freezes the tree as of the roll, then writes the
+    //  checkpoint to a temporary file and renames it over the old one
+    private void checkpoint(boolean explicit) throws IOException {
+        StaticKdTreeST<Value> snapshot;
+        long next;
+        synchronized (syncLock) {
+            while (syncing) {
+                try {
+                    syncLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted waiting for the log", e);
+                }
+            }
+            syncing = true;
+        }
+        try {
+            synchronized (this) {
+                if (closed) {
+                    if (explicit) throw new IllegalStateException("symbol table is closed");
+                    return;
+                }
+                if (!explicit && sinceCheckpoint < interval) return;
+                log.flush();
+                channel.force(false);
+                log.close();
+                durable = written;
+                next = generation + 1;
+                openLog(next);
+                snapshot = tree.freeze();
+                sinceCheckpoint = 0;
+            }
+        } finally {
+            synchronized (syncLock) {
+                syncing = false;
+                syncLock.notifyAll();
+            }
+        }
+
+        Path tmp = dir.resolve(CHECKPOINT + ".tmp");
+        writeCheckpoint(snapshot, next, tmp);
+        Files.move(tmp, dir.resolve(CHECKPOINT), StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+        for (long g : logs())
+            if (g < next) Files.delete(log(g));
+    }
+
+    private void writeCheckpoint(StaticKdTreeST<Value> snapshot, long next, Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        FileOutputStream stream = new FileOutputStream(file.toFile());
+        try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                new BufferedOutputStream(stream, 1 << 16), crc))) {
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeLong(next);
+            out.writeInt(snapshot.size());
+            for (int i = 0; i < snapshot.size(); i++) {
+                Point2D p = snapshot.point(i);
+                Value val = snapshot.value(i);
+                out.writeDouble(p.x());
+                out.writeDouble(p.y());
+                out.writeBoolean(val != null);
+                if (val != null) codec.write(out, val);
+            }
+            out.writeLong(crc.getValue());
+            out.flush();
+            stream.getChannel().force(true);
+        }
+    }
+
+
+    /**
+     * Forces the log to disk and closes it. Later puts throw an
+     * <tt>IllegalStateException</tt>; queries still answer from memory.
+     * @throws IOException if the log cannot be closed
+     */
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            while (syncing) {
+                try {
+                    syncLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            synchronized (this) {
+                if (closed) return;
+                closed = true;
+                log.flush();
+                channel.force(false);
+                log.close();
+                durable = written;
+            }
+        }
+    }
+
+
+    public static void main(String[] args) throws IOException {
+        long start = System.nanoTime();
+        DurableKdTreeST<Integer> st = new DurableKdTreeST<>(Paths.get(args[0]), INTEGERS, 100000);
+        StdOut.printf("recovered %d points in %.1f ms%n", st.size(), (System.nanoTime() - start) / 1e6);
+
+        In in = new In(args[1]);
+        int n = 0;
+        start = System.nanoTime();
+        while (!in.isEmpty()) {
+            double x = in.readDouble();
+            double y = in.readDouble();
+            st.put(new Point2D(x, y), n++);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        StdOut.printf("put %d points, %.0f per second%n", n, n / seconds);
+        st.close();
+    }
+}
@@ -0,0 +1,78 @@
+import edu.princeton.cs.algs4.Point2D;
+
+/**
+ *  The <em>k</em>-nearest-neighbor graph of a point set, as computed by
+ *  {@link KdTreeST#allKNearest(int)}. Points are numbered 0 through
+ *  <em>n</em> - 1 and the neighbors of point <em>i</em> are stored in
+ *  increasing distance at positions <em>ik</em> through <em>ik + k</em> - 1
+ *  of a single <tt>int[]</tt> table, padded with -1 when the set has fewer
+ *  than <em>k</em> other points.
+ */
+public class KNearestGraph<Value> {
+
+    private final Point2D[] points;
+    private final Value[] vals;
+    private final int k;
+    private final int[] neighbors;
+
+    KNearestGraph(Point2D[] points, Value[] vals, int k, int[] neighbors) {
+        this.points = points;
+        this.vals = vals;
+        this.k = k;
+        this.neighbors = neighbors;
+    }
+
+    /**
+     * Returns the number of points in the graph.
+     * @return the number of points in the graph
+     */
+    public int size() {
+        return points.length;
+    }
+
+    /**
+     * Returns the number of neighbors kept per point.
+     * @return the number of neighbors kept per point
+     */
+    public int k() {
+        return k;
+    }
+
+    /**
+     * Returns point number i.
+     * @param i the number of the point
+     * @return point number <tt>i</tt>
+     */
+    public Point2D point(int i) {
+        return points[i];
+    }
+
+    /**
+     * Returns the value associated with point number i.
+     * @param i the number of the point
+     * @return the value associated with point number <tt>i</tt>
+     */
+    public Value value(int i) {
+        return vals[i];
+    }
+
+    /**
+     * Returns the number of the j-th nearest neighbor of point number i.
+     * @param i the number of the point
+     * @param j the rank of the neighbor, from 0 for the nearest
+     * @return the number of the neighbor; -1 if there is no such neighbor
+     */
+    public int neighbor(int i, int j) {
+        if (j < 0 || j >= k)
+            throw new IndexOutOfBoundsException("rank " + j + " outside [0, " + k + ")");
+        return neighbors[i * k + j];
+    }
+
+    /**
+     * Returns the whole neighbor table. The table is shared, not copied.
+     * @return the neighbor table, <tt>k</tt> entries per point
+     */
+    public int[] neighbors() {
+        return neighbors;
+    }
+}
@@ -3,17 +3,47 @@ import edu.princeton.cs.algs4.RectHV;
 import edu.princeton.cs.algs4.SET;
 import edu.princeton.cs.algs4.StdDraw;
 
-public class KdTree {
+public class KdTree implements SpatialIndex {
 
     private static class Node {
         private Point2D p;      // the point
         private Node lb;        // the left/bottom subtree
         private Node rt;        // the right/top subtree
         private boolean isVertical;
+        private double xmin, ymin, xmax, ymax;  // bounding box of the subtree's points
 
         Node(Point2D p, boolean isVertical) {
             this.p = p;
             this.isVertical = isVertical;
+            this.xmin = this.xmax = p.x();
+            this.ymin = this.ymax = p.y();
+        }
+
+        //  grow the bounding box to cover point that
+        void extend(Point2D that) {
+            xmin = Math.min(xmin, that.x());
+            xmax = Math.max(xmax, that.x());
+            ymin = Math.min(ymin, that.y());
+            ymax = Math.max(ymax, that.y());
+        }
+
+        //  squared distance from point that to the bounding box
+        double distanceSquaredTo(Point2D that) {
+            double dx = 0.0, dy = 0.0;
+            if (that.x() < xmin)
+                dx = that.x() - xmin;
+            else if (that.x() > xmax)
+                dx = that.x() - xmax;
+            if (that.y() < ymin)
+                dy = that.y() - ymin;
+            else if (that.y() > ymax)
+                dy = that.y() - ymax;
+            return dx * dx + dy * dy;
+        }
+
+        boolean intersects(RectHV that) {
+            return xmax >= that.xmin() && xmin <= that.xmax()
+                && ymax >= that.ymin() && ymin <= that.ymax();
         }
 
         //  return a positive number if Point should go to left or bottom, and vice versa.
@@ -31,24 +61,6 @@ public class KdTree {
             else
                 return 0;
         }
-
-        int compareTo(RectHV that) {
-            if (this.isVertical) {
-                if (this.p.x() > that.xmax())
-                    return 1;
-                else if (this.p.x() < that.xmin())
-                    return -1;
-                else
-                    return 0;
-            } else {
-                if (this.p.y() > that.ymax())
-                    return 1;
-                else if (this.p.y() < that.ymin())
-                    return -1;
-                else
-                    return 0;
-            }
-        }
     }
 
     private int N;
@@ -87,7 +99,9 @@ public class KdTree {
 
         if (x.p.equals(p))
             return x;
-        else if (x.compareTo(p) > 0)
+
+        x.extend(p);
+        if (x.compareTo(p) > 0)
             x.lb = put(x.lb, x, p);
         else
             x.rt = put(x.rt, x, p);
@@ -117,31 +131,30 @@ public class KdTree {
 
     public void draw()                         // draw all points to standard draw
     {
-        draw(root, new RectHV(0, 0, 1, 1));
+        draw(root, 0, 0, 1, 1);
     }
 
-    private void draw(Node x, RectHV zone) {
+    private void draw(Node x, double xmin, double ymin, double xmax, double ymax) {
         if (x == null) return;
+        drawNode(x, xmin, ymin, xmax, ymax);
         if (x.isVertical) {
-            drawNode(x, zone);
-            draw(x.lb, new RectHV(zone.xmin(), zone.ymin(), x.p.x(), zone.ymax()));
-            draw(x.rt, new RectHV(x.p.x(), zone.ymin(), zone.xmax(), zone.ymax()));
+            draw(x.lb, xmin, ymin, x.p.x(), ymax);
+            draw(x.rt, x.p.x(), ymin, xmax, ymax);
         } else {
-            drawNode(x, zone);
-            draw(x.lb, new RectHV(zone.xmin(), zone.ymin(), zone.xmax(), x.p.y()));
-            draw(x.rt, new RectHV(zone.xmin(), x.p.y(), zone.xmax(), zone.ymax()));
+            draw(x.lb, xmin, ymin, xmax, x.p.y());
+            draw(x.rt, xmin, x.p.y(), xmax, ymax);
         }
     }
 
-    private void drawNode(Node x, RectHV range) {
+    private void drawNode(Node x, double xmin, double ymin, double xmax, double ymax) {
 
         StdDraw.setPenRadius(.001);
         if (x.isVertical) {
             StdDraw.setPenColor(StdDraw.RED);
-            StdDraw.line(x.p.x(), range.ymin(), x.p.x(), range.ymax());
+            StdDraw.line(x.p.x(), ymin, x.p.x(), ymax);
         } else {
             StdDraw.setPenColor(StdDraw.BLUE);
-            StdDraw.line(range.xmin(), x.p.y(), range.xmax(), x.p.y());
+            StdDraw.line(xmin, x.p.y(), xmax, x.p.y());
         }
 
         StdDraw.setPenColor(StdDraw.BLACK);
@@ -149,6 +162,33 @@ public class KdTree {
         x.p.draw();
     }
 
+    public void draw(KdTreeRenderer renderer)  // buffer the splits and points into the renderer
+    {
+        if (root == null) return;
+        //  the unit square, grown to the bounding box of the points so that
+        //  the split cells cover points outside it too
+        draw(root, renderer, Math.min(0, root.xmin), Math.min(0, root.ymin),
+                             Math.max(1, root.xmax), Math.max(1, root.ymax));
+    }
+
+    //  each split is drawn across its cell; a cell outside the viewport holds
+    //  nothing visible, and a cell within one pixel is drawn as its point alone
+    private void draw(Node x, KdTreeRenderer renderer, double xmin, double ymin, double xmax, double ymax) {
+        if (x == null || !renderer.visible(xmin, ymin, xmax, ymax)) return;
+        renderer.point(x.p.x(), x.p.y());
+        if (renderer.subpixel(xmin, ymin, xmax, ymax)) return;
+
+        if (x.isVertical) {
+            renderer.verticalLine(x.p.x(), ymin, ymax, StdDraw.RED);
+            draw(x.lb, renderer, xmin, ymin, x.p.x(), ymax);
+            draw(x.rt, renderer, x.p.x(), ymin, xmax, ymax);
+        } else {
+            renderer.horizontalLine(x.p.y(), xmin, xmax, StdDraw.BLUE);
+            draw(x.lb, renderer, xmin, ymin, xmax, x.p.y());
+            draw(x.rt, renderer, xmin, x.p.y(), xmax, ymax);
+        }
+    }
+
     public Iterable<Point2D> range(RectHV rect)             // all points that are inside the rectangle
     {
         verify(rect);
@@ -158,14 +198,11 @@ public class KdTree {
     }
 
     private void range(Node x, RectHV rect, SET<Point2D> set) {
-        if (x == null)
+        if (x == null || !x.intersects(rect))
             return;
 
-        if (x.compareTo(rect) >= 0)
-            range(x.lb, rect, set);
-
-        if (x.compareTo(rect) <= 0)
-            range(x.rt, rect, set);
+        range(x.lb, rect, set);
+        range(x.rt, rect, set);
 
         if (rect.contains(x.p))
             set.add(x.p);
@@ -177,11 +214,12 @@ public class KdTree {
     {
         verify(p);
         minDistance = Double.MAX_VALUE;
-        return nearest(root, p, null, new RectHV(0, 0, 1, 1));
+        return nearest(root, p, null);
     }
 
-    private Point2D nearest(Node x, Point2D p, Point2D champion, RectHV division) {
-        if (x == null)
+    private Point2D nearest(Node x, Point2D p, Point2D champion) {
+        //  pruning rule: skip subtrees whose bounding box is farther than the champion
+        if (x == null || x.distanceSquaredTo(p) > minDistance)
             return champion;
 
         double distance = x.p.distanceSquaredTo(p);
@@ -192,24 +230,12 @@ public class KdTree {
         if (minDistance == 0)
             return champion;
 
-        RectHV LB, RT;
-        if (x.isVertical) {
-            LB = new RectHV(division.xmin(), division.ymin(), x.p.x(), division.ymax());
-            RT = new RectHV(x.p.x(), division.ymin(), division.xmax(), division.ymax());
-        } else {
-            LB = new RectHV(division.xmin(), division.ymin(), division.xmax(), x.p.y());
-            RT = new RectHV(division.xmin(), x.p.y(), division.xmax(), division.ymax());
-        }
-
         if (x.compareTo(p) > 0) {
-            //  pruning rule
-            champion = nearest(x.lb, p, champion, LB);
-            if (RT.distanceSquaredTo(p) <= minDistance)
-                champion = nearest(x.rt, p, champion, RT);
+            champion = nearest(x.lb, p, champion);
+            champion = nearest(x.rt, p, champion);
         } else {
-            champion = nearest(x.rt, p, champion, RT);
-            if (LB.distanceSquaredTo(p) <= minDistance)
-                champion = nearest(x.lb, p, champion, LB);
+            champion = nearest(x.rt, p, champion);
+            champion = nearest(x.lb, p, champion);
         }
 
         return champion;
@@ -228,9 +254,19 @@ public class KdTree {
         kd.insert(new Point2D(1.1736142330170032, 1.2246971665753188));
         kd.insert(new Point2D(1.0280263328057737, 0.9613013677540136));
         kd.insert(new Point2D(0.5047449548290154, -0.3869185813785929));
-//        Point2D nearest = kd.nearest(new Point2D(-0.33036709507768675, 0.6317533239316923));
-//        Iterable<Point2D> set = kd.range(new RectHV(-0.34634662072206124, -0.017699115044247815,
-//                                                    -0.1869632182107709,  0.9410029498525073));
+        Point2D nearest = kd.nearest(new Point2D(-0.33036709507768675, 0.6317533239316923));
+        Iterable<Point2D> set = kd.range(new RectHV(-0.34634662072206124, -0.017699115044247815,
+                                                    -0.1869632182107709,  0.9410029498525073));
+
+        //  every node of a small tree draws its split, leaves included
+        KdTree small = new KdTree();
+        small.insert(new Point2D(0.5, 0.3));
+        small.insert(new Point2D(0.2, 0.9));
+        small.insert(new Point2D(0.7, 0.6));
+        KdTreeRenderer renderer = new KdTreeRenderer(512, 512);
+        small.draw(renderer);
+        if (renderer.lines() != 3)
+            throw new AssertionError("expected 3 split lines, drew " + renderer.lines());
     }
 
 }
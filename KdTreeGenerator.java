@@ -1,7 +1,7 @@
 /******************************************************************************
  * Compilation:  javac KdTreeGenerator.java
- * Execution:    java KdTreeGenerator N
- * Dependencies:
+ * Execution:    java KdTreeGenerator N [options]
+ * Dependencies: KdTreeST.java
  * <p>
  * Creates N random points in the unit square and print to standard output.
  * <p>
@@ -11,19 +11,510 @@
  * 0.556719 0.841373
  * 0.183384 0.636701
  * 0.649952 0.237188
+ * <p>
+ * Options:
+ *   -d NAME       distribution: uniform (default), clusters, cities, sorted,
+ *                 line, curve or duplicates
+ *   -seed S       seed, for the same output on every run
+ *   -box X0 Y0 X1 Y1
+ *                 stretch the unit square over [X0, X1] x [Y0, Y1]
+ *   -binary       write each point as two big-endian doubles instead of text
+ *   -threads T    number of threads generating points
+ *   -ranges Q F   write Q query rectangles "xmin ymin xmax ymax", each
+ *                 holding about the fraction F of the N points, instead
+ *   -nearest Q    write Q nearest-neighbor query points instead
+ * <p>
+ * % java KdTreeGenerator 100000000 -d cities -seed 7 -binary > cities.bin
+ * % java KdTreeGenerator 100000000 -d cities -seed 7 -ranges 1000 0.0001 > ranges.txt
  ******************************************************************************/
 
-import edu.princeton.cs.algs4.StdRandom;
-import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+/**
+ *  Seeded synthetic point sets and matching query workloads. The points
+ *  are generated in chunks of fixed size, each from its own random stream
+ *  derived from the seed and the chunk number, so the output depends only
+ *  on the seed, whatever the number of threads.
+ */
 public class KdTreeGenerator {
 
-    public static void main(String[] args) {
-        int N = Integer.parseInt(args[0]);
-        for (int i = 0; i < N; i++) {
-            double x = StdRandom.uniform(0.0, 1.0);
-            double y = StdRandom.uniform(0.0, 1.0);
-            StdOut.printf("%8.6f %8.6f\n", x, y);
+    private static final int CHUNK = 1 << 15;       // points per random stream
+    private static final int SAMPLE = 1 << 16;      // points sampled to size query rectangles
+    private static final int CLUSTERS = 16;
+    private static final int CITIES = 1000;
+    private static final double RURAL = 0.05;       // fraction of the cities set outside any city
+
+    private final String distribution;
+    private final long n;
+    private final long seed;
+    private final double xmin, ymin, xmax, ymax;
+
+    //  cluster or city centers with their spreads; cumulative city weights
+    private double[] cx, cy, sigma, cumulative;
+    //  the distinct points of the duplicates set
+    private double[] poolX, poolY;
+
+
+    /**
+     * Prepares a generator of <tt>n</tt> points drawn from the named
+     * distribution over the rectangle
+     * [<em>xmin</em>, <em>xmax</em>] x [<em>ymin</em>, <em>ymax</em>]
+     *
+     * @param  distribution uniform, clusters, cities, sorted, line, curve or duplicates
+     * @param  n the number of points
+     * @param  seed the seed
+     * @param  xmin the <em>x</em>-coordinate of the lower-left endpoint
+     * @param  ymin the <em>y</em>-coordinate of the lower-left endpoint
+     * @param  xmax the <em>x</em>-coordinate of the upper-right endpoint
+     * @param  ymax the <em>y</em>-coordinate of the upper-right endpoint
+     * @throws IllegalArgumentException if the distribution is unknown or <tt>n</tt> is negative
+     */
+    public KdTreeGenerator(String distribution, long n, long seed,
+                           double xmin, double ymin, double xmax, double ymax) {
+        if (n < 0)
+            throw new IllegalArgumentException("number of points must be non-negative");
+        this.distribution = distribution;
+        this.n = n;
+        this.seed = seed;
+        this.xmin = xmin;
+        this.ymin = ymin;
+        this.xmax = xmax;
+        this.ymax = ymax;
+
+        SplittableRandom random = new SplittableRandom(seed);
+        switch (distribution) {
+            case "uniform": case "sorted": case "line": case "curve":
+                break;
+            case "clusters":
+                centers(random, CLUSTERS);
+                for (int i = 0; i < CLUSTERS; i++)
+                    sigma[i] = 0.01 + 0.04 * random.nextDouble();
+                break;
+            case "cities":
+                //  Zipf weights: the city of rank r has 1/r of the largest
+                //  one's people, spread over a disk growing with its size
+                centers(random, CITIES);
+                cumulative = new double[CITIES];
+                double total = 0.0;
+                for (int i = 0; i < CITIES; i++) {
+                    double weight = 1.0 / (i + 1);
+                    total += weight;
+                    cumulative[i] = total;
+                    sigma[i] = 0.03 * Math.sqrt(weight);
+                }
+                for (int i = 0; i < CITIES; i++)
+                    cumulative[i] /= total;
+                break;
+            case "duplicates":
+                //  on average a hundred copies of each distinct point
+                int distinct = (int) Math.max(1, Math.min(1 << 20, n / 100));
+                poolX = new double[distinct];
+                poolY = new double[distinct];
+                for (int i = 0; i < distinct; i++) {
+                    poolX[i] = random.nextDouble();
+                    poolY[i] = random.nextDouble();
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("unknown distribution " + distribution);
+        }
+    }
+
+    private void centers(SplittableRandom random, int k) {
+        cx = new double[k];
+        cy = new double[k];
+        sigma = new double[k];
+        for (int i = 0; i < k; i++) {
+            cx[i] = 0.1 + 0.8 * random.nextDouble();
+            cy[i] = 0.1 + 0.8 * random.nextDouble();
+        }
+    }
+
+
+    /***************************************************************************
+     *  Points.
+     ***************************************************************************/
+
+    //  number of chunks of the point set
+    private long chunks() {
+        return (n + CHUNK - 1) / CHUNK;
+    }
+
+    //  the random stream of chunk c
+    private SplittableRandom stream(long c) {
+        return new SplittableRandom(seed ^ (c + 1) * 0x9E3779B97F4A7C15L);
+    }
+
+    //  fills xs and ys with the points of chunk c, mapped onto the box
+    private int chunk(long c, double[] xs, double[] ys) {
+        int count = (int) Math.min(CHUNK, n - c * CHUNK);
+        SplittableRandom random = stream(c);
+        double[] xy = new double[2];
+        if (distribution.equals("sorted")) {
+            //  chunk c covers its own slice of x, so the whole set is sorted
+            for (int i = 0; i < count; i++)
+                xs[i] = random.nextDouble();
+            Arrays.sort(xs, 0, count);
+            for (int i = 0; i < count; i++) {
+                xs[i] = (c + xs[i]) / chunks();
+                ys[i] = random.nextDouble();
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                sample(random, xy);
+                xs[i] = xy[0];
+                ys[i] = xy[1];
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            xs[i] = xmin + (xmax - xmin) * xs[i];
+            ys[i] = ymin + (ymax - ymin) * ys[i];
+        }
+        return count;
+    }
+
+    //  draws one point of the distribution in the unit square into xy;
+    //  uniform for the uniform and sorted sets
+    private void sample(SplittableRandom random, double[] xy) {
+        switch (distribution) {
+            case "clusters":
+                gaussian(random, random.nextInt(CLUSTERS), xy);
+                return;
+            case "cities":
+                if (random.nextDouble() < RURAL) break;
+                int city = Arrays.binarySearch(cumulative, random.nextDouble());
+                gaussian(random, Math.min(CITIES - 1, city < 0 ? -city - 1 : city), xy);
+                return;
+            case "line":
+                xy[0] = xy[1] = random.nextDouble();
+                return;
+            case "curve":
+                xy[0] = random.nextDouble();
+                xy[1] = 0.5 + 0.4 * Math.sin(6 * Math.PI * xy[0]);
+                return;
+            case "duplicates":
+                int i = random.nextInt(poolX.length);
+                xy[0] = poolX[i];
+                xy[1] = poolY[i];
+                return;
+            default:
+                break;
+        }
+        xy[0] = random.nextDouble();
+        xy[1] = random.nextDouble();
+    }
+
+    //  a normal sample around center i, redrawn until it lies in the unit square
+    private void gaussian(SplittableRandom random, int i, double[] xy) {
+        do {
+            xy[0] = cx[i] + sigma[i] * random.nextGaussian();
+            xy[1] = cy[i] + sigma[i] * random.nextGaussian();
+        } while (xy[0] < 0 || xy[0] >= 1 || xy[1] < 0 || xy[1] >= 1);
+    }
+
+    /**
+     * Returns the first <tt>count</tt> points of the set, the same points
+     * the command line writes first.
+     * @param count the number of points
+     * @return the first <tt>count</tt> points
+     * @throws IllegalArgumentException if <tt>count</tt> is negative or more than the set holds
+     */
+    public Point2D[] points(int count) {
+        if (count < 0 || count > n)
+            throw new IllegalArgumentException("count must be between 0 and " + n);
+        Point2D[] points = new Point2D[count];
+        double[] xs = new double[CHUNK], ys = new double[CHUNK];
+        for (long c = 0; c * CHUNK < count; c++) {
+            int m = Math.min(chunk(c, xs, ys), (int) (count - c * CHUNK));
+            for (int i = 0; i < m; i++)
+                points[(int) (c * CHUNK) + i] = new Point2D(xs[i], ys[i]);
+        }
+        return points;
+    }
+
+    //  independent draws from the distribution, on a stream apart from the
+    //  set's; the sorted set draws uniform points, in no order
+    private Point2D[] draws(int count, long stream) {
+        SplittableRandom random = new SplittableRandom(seed ^ stream);
+        Point2D[] points = new Point2D[count];
+        double[] xy = new double[2];
+        for (int i = 0; i < count; i++) {
+            sample(random, xy);
+            points[i] = new Point2D(xmin + (xmax - xmin) * xy[0], ymin + (ymax - ymin) * xy[1]);
+        }
+        return points;
+    }
+
+
+    /***************************************************************************
+     *  Query workloads.
+     ***************************************************************************/
+
+    /**
+     * Returns query rectangles that each hold about the given fraction of the
+     * points. Each is a square around a point drawn from the distribution,
+     * sized by bisection against the counts of a sample of the set kept in a
+     * {@link KdTreeST} that sums the multiplicity of each point.
+     * @param q the number of rectangles
+     * @param selectivity the fraction of the points each should hold
+     * @return the rectangles
+     * @throws IllegalArgumentException if <tt>q</tt> is negative or
+     *     <tt>selectivity</tt> is not between 0 and 1
+     */
+    public RectHV[] ranges(int q, double selectivity) {
+        if (q < 0 || !(selectivity >= 0 && selectivity <= 1))
+            throw new IllegalArgumentException("need q >= 0 and selectivity in [0, 1]");
+        Point2D[] sample = draws((int) Math.min(SAMPLE, Math.max(1, n)), 0x5A3C0FL);
+        Map<Point2D, Integer> copies = new HashMap<>();
+        for (Point2D p : sample)
+            copies.merge(p, 1, Integer::sum);
+        Point2D[] distinct = copies.keySet().toArray(new Point2D[0]);
+        Integer[] counts = new Integer[distinct.length];
+        for (int i = 0; i < distinct.length; i++)
+            counts[i] = copies.get(distinct[i]);
+        KdTreeST<Integer> counter = new KdTreeST<>(distinct, counts, 0, Integer::sum);
+
+        double target = selectivity * sample.length;
+        Point2D[] centers = draws(q, 0xC3A7E5L);
+        RectHV[] ranges = new RectHV[q];
+        for (int i = 0; i < q; i++) {
+            Point2D c = centers[i];
+            double lo = 0.0, hi = Math.max(xmax - xmin, ymax - ymin);
+            for (int step = 0; step < 40; step++) {
+                double half = (lo + hi) / 2;
+                RectHV rect = new RectHV(c.x() - half, c.y() - half, c.x() + half, c.y() + half);
+                if (counter.aggregate(rect) < target) lo = half;
+                else                                  hi = half;
+            }
+            ranges[i] = new RectHV(c.x() - hi, c.y() - hi, c.x() + hi, c.y() + hi);
+        }
+        return ranges;
+    }
+
+    /**
+     * Returns query points for nearest-neighbor searches: half drawn from the
+     * distribution, so they fall among the points, and half uniform over the box.
+     * @param q the number of query points
+     * @return the query points
+     * @throws IllegalArgumentException if <tt>q</tt> is negative
+     */
+    public Point2D[] nearestQueries(int q) {
+        if (q < 0)
+            throw new IllegalArgumentException("q must be non-negative");
+        Point2D[] queries = draws(q, 0x4EA7L);
+        SplittableRandom random = new SplittableRandom(seed ^ 0xB0CL);
+        for (int i = 1; i < q; i += 2)
+            queries[i] = new Point2D(xmin + (xmax - xmin) * random.nextDouble(),
+                                     ymin + (ymax - ymin) * random.nextDouble());
+        return queries;
+    }
+
+
+    /***************************************************************************
+     *  Output.
+     ***************************************************************************/
+
+    //  writes the whole set, chunks encoded on the given number of threads
+    //  and written in order, with at most two chunks per thread in flight
+    private void write(OutputStream out, boolean binary, int threads) throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+        try {
+            for (long c = 0; c < chunks(); c++) {
+                final long chunk = c;
+                pending.add(pool.submit(() -> {
+                    double[] xs = new double[CHUNK], ys = new double[CHUNK];
+                    int count = chunk(chunk, xs, ys);
+                    return binary ? binary(xs, ys, count) : text(xs, ys, count);
+                }));
+                if (pending.size() >= 2 * threads)
+                    out.write(pending.remove().get());
+            }
+            while (!pending.isEmpty())
+                out.write(pending.remove().get());
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static byte[] binary(double[] xs, double[] ys, int count) {
+        ByteBuffer buffer = ByteBuffer.allocate(16 * count);
+        for (int i = 0; i < count; i++) {
+            buffer.putDouble(xs[i]);
+            buffer.putDouble(ys[i]);
+        }
+        return buffer.array();
+    }
+
+    private static byte[] text(double[] xs, double[] ys, int count) {
+        byte[] buf = new byte[64 * count];
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            pos = format(xs[i], buf, pos);
+            buf[pos++] = ' ';
+            pos = format(ys[i], buf, pos);
+            buf[pos++] = '\n';
+        }
+        return Arrays.copyOf(buf, pos);
+    }
+
+    //  writes v with six decimals, as "%8.6f" does, and returns the position
+    //  after it; |v| of 10^12 or more, or not finite, is written as
+    //  Double.toString writes it, since scaling it by 10^6 would overflow
+    private static int format(double v, byte[] buf, int pos) {
+        if (!(Math.abs(v) < 1e12)) {
+            String s = Double.toString(v);
+            for (int i = 0; i < s.length(); i++)
+                buf[pos++] = (byte) s.charAt(i);
+            return pos;
+        }
+        long scaled = Math.round(Math.abs(v) * 1e6);
+        if (v < 0 && scaled != 0) buf[pos++] = '-';
+        long whole = scaled / 1000000;
+        int fraction = (int) (scaled % 1000000);
+
+        int start = pos;
+        do {
+            buf[pos++] = (byte) ('0' + whole % 10);
+            whole /= 10;
+        } while (whole > 0);
+        for (int i = start, j = pos - 1; i < j; i++, j--) {
+            byte t = buf[i];
+            buf[i] = buf[j];
+            buf[j] = t;
+        }
+
+        buf[pos++] = '.';
+        for (int d = 100000; d > 0; d /= 10)
+            buf[pos++] = (byte) ('0' + fraction / d % 10);
+        return pos;
+    }
+
+
+    //  reports a bad argument on standard error, keeping standard output for data
+    private static void usage(String problem) {
+        System.err.println(problem);
+        System.err.println("usage: java KdTreeGenerator N [-d NAME] [-seed S] [-box X0 Y0 X1 Y1]");
+        System.err.println("                            [-binary] [-threads T] [-ranges Q F | -nearest Q]");
+    }
+
+    //  the number of values following an option
+    private static int values(String option) {
+        switch (option) {
+            case "-d": case "-seed": case "-threads": case "-nearest": return 1;
+            case "-ranges": return 2;
+            case "-box":    return 4;
+            default:        return 0;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0) {
+            usage("missing N");
+            return;
+        }
+        long N;
+        try {
+            N = Long.parseLong(args[0]);
+        } catch (NumberFormatException e) {
+            usage("N is not a number: " + args[0]);
+            return;
+        }
+        String distribution = "uniform";
+        long seed = new SplittableRandom().nextLong();
+        double[] box = { 0.0, 0.0, 1.0, 1.0 };
+        boolean binary = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int ranges = -1, nearest = -1;
+        double selectivity = 0.0;
+
+        try {
+            for (int i = 1; i < args.length; i++) {
+                String option = args[i];
+                if (i + values(option) >= args.length) {
+                    usage("missing value for " + option);
+                    return;
+                }
+                switch (option) {
+                    case "-d":       distribution = args[++i]; break;
+                    case "-seed":    seed = Long.parseLong(args[++i]); break;
+                    case "-binary":  binary = true; break;
+                    case "-threads": threads = Integer.parseInt(args[++i]); break;
+                    case "-nearest":
+                        nearest = Integer.parseInt(args[++i]);
+                        if (nearest < 0) { usage("query counts must be non-negative"); return; }
+                        break;
+                    case "-ranges":
+                        ranges = Integer.parseInt(args[++i]);
+                        selectivity = Double.parseDouble(args[++i]);
+                        if (ranges < 0) { usage("query counts must be non-negative"); return; }
+                        break;
+                    case "-box":
+                        for (int k = 0; k < 4; k++)
+                            box[k] = Double.parseDouble(args[++i]);
+                        break;
+                    default:
+                        usage("unknown option " + option);
+                        return;
+                }
+            }
+        } catch (NumberFormatException e) {
+            usage("not a number: " + e.getMessage());
+            return;
+        }
+
+        if (N < 0)                                   { usage("N must be non-negative"); return; }
+        if (threads < 1)                             { usage("-threads must be at least 1"); return; }
+        if (!(box[0] <= box[2] && box[1] <= box[3])) { usage("-box needs X0 <= X1 and Y0 <= Y1"); return; }
+        if (!(selectivity >= 0 && selectivity <= 1)) { usage("selectivity must be between 0 and 1"); return; }
+        if (!Arrays.asList("uniform", "clusters", "cities", "sorted", "line", "curve", "duplicates")
+                   .contains(distribution))         { usage("unknown distribution " + distribution); return; }
+
+        KdTreeGenerator generator = new KdTreeGenerator(distribution, N, seed, box[0], box[1], box[2], box[3]);
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16);
+        if (ranges >= 0) {
+            byte[] line = new byte[128];
+            for (RectHV rect : generator.ranges(ranges, selectivity)) {
+                int pos = format(rect.xmin(), line, 0);
+                line[pos++] = ' ';
+                pos = format(rect.ymin(), line, pos);
+                line[pos++] = ' ';
+                pos = format(rect.xmax(), line, pos);
+                line[pos++] = ' ';
+                pos = format(rect.ymax(), line, pos);
+                line[pos++] = '\n';
+                out.write(line, 0, pos);
+            }
+        } else if (nearest >= 0) {
+            Point2D[] queries = generator.nearestQueries(nearest);
+            double[] xs = new double[queries.length], ys = new double[queries.length];
+            for (int i = 0; i < queries.length; i++) {
+                xs[i] = queries[i].x();
+                ys[i] = queries[i].y();
+            }
+            out.write(text(xs, ys, queries.length));
+        } else {
+            generator.write(out, binary, threads);
         }
+        out.flush();
     }
 }
@@ -0,0 +1,158 @@
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ *  Drives a {@link KdTreeServer} over loopback with pipelined random
+ *  queries, one in ten a range query of side 0.01, and reports throughput
+ *  against median and 99th percentile latency as the number of requests
+ *  each connection keeps in flight doubles from 1 up to the limit.
+ *
+ *  Usage: java KdTreeLoadGenerator [port] [connections] [requests] [inflight]
+ *  where a port of 0 starts a server in this process on 100,000 random points.
+ */
+public class KdTreeLoadGenerator {
+
+    //  one connection sending requests and timing their replies
+    private static class Connection {
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final DataInputStream in;
+        private final AtomicLongArray sent; // when request i was written, read by the reader thread
+        private final long[] latency;       // nanoseconds until reply i was read
+        private final Semaphore window;     // permits for requests in flight
+        private final Random random;
+        private IOException failure;
+
+        Connection(int port, int requests, int inflight, long seed) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setTcpNoDelay(true);
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            sent = new AtomicLongArray(requests);
+            latency = new long[requests];
+            window = new Semaphore(inflight);
+            random = new Random(seed);
+        }
+
+        void write() {
+            try {
+                for (int i = 0; i < sent.length(); i++) {
+                    window.acquire();
+                    double x = random.nextDouble(), y = random.nextDouble();
+                    sent.set(i, System.nanoTime());
+                    if (i % 10 == 9) {
+                        out.writeByte(KdTreeServer.RANGE);
+                        out.writeLong(i);
+                        out.writeDouble(x);
+                        out.writeDouble(y);
+                        out.writeDouble(x + 0.01);
+                        out.writeDouble(y + 0.01);
+                    } else {
+                        out.writeByte(KdTreeServer.NEAREST);
+                        out.writeLong(i);
+                        out.writeDouble(x);
+                        out.writeDouble(y);
+                    }
+                    //  flush only when the pipe would otherwise stall
+                    if (window.availablePermits() == 0 || i == sent.length() - 1) out.flush();
+                }
+                socket.shutdownOutput();
+            } catch (IOException e) {
+                failure = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void read() {
+            try {
+                for (int n = 0; n < sent.length(); n++) {
+                    int i = (int) in.readLong();
+                    if (in.readByte() != KdTreeServer.OK)
+                        throw new IOException("request " + i + " failed");
+                    if (i % 10 == 9) {
+                        int count = in.readInt();
+                        in.skipBytes(16 * count);
+                    } else {
+                        in.skipBytes(17);
+                    }
+                    latency[i] = System.nanoTime() - sent.get(i);
+                    window.release();
+                }
+                socket.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
+
+
+    //  runs one round and returns the latencies of all its requests
+    private static long[] round(int port, int connections, int requests, int inflight) throws Exception {
+        Connection[] clients = new Connection[connections];
+        Thread[] threads = new Thread[2 * connections];
+        for (int c = 0; c < connections; c++) {
+            Connection client = new Connection(port, requests, inflight, 31L * inflight + c);
+            clients[c] = client;
+            threads[2 * c] = new Thread(client::write);
+            threads[2 * c + 1] = new Thread(client::read);
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+
+        long[] all = new long[connections * requests];
+        for (int c = 0; c < connections; c++) {
+            if (clients[c].failure != null) throw clients[c].failure;
+            System.arraycopy(clients[c].latency, 0, all, c * requests, requests);
+        }
+        return all;
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+        int inflight = args.length > 3 ? Integer.parseInt(args[3]) : 256;
+
+        KdTreeServer server = null;
+        if (port == 0) {
+            StdRandom.setSeed(0);
+            int n = 100000;
+            Point2D[] points = new Point2D[n];
+            for (int i = 0; i < n; i++)
+                points[i] = new Point2D(StdRandom.uniform(), StdRandom.uniform());
+            server = new KdTreeServer(new KdTreeST<>(points, new Integer[n]).freeze(), 20);
+            port = server.listen(0);
+        }
+
+        //  a first round to warm up the server and the JIT
+        round(port, connections, requests, inflight);
+
+        StdOut.printf("%8s %14s %10s %10s%n", "inflight", "requests/s", "p50 us", "p99 us");
+        for (int k = 1; k <= inflight; k *= 2) {
+            long start = System.nanoTime();
+            long[] latency = round(port, connections, requests, k);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            Arrays.sort(latency);
+            StdOut.printf("%8d %14.0f %10.1f %10.1f%n", k, latency.length / seconds,
+                    latency[latency.length / 2] / 1e3,
+                    latency[(int) (latency.length * 0.99)] / 1e3);
+        }
+
+        if (server != null) server.close();
+    }
+}
@@ -0,0 +1,281 @@
+import edu.princeton.cs.algs4.StdDraw;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ *  Collects the split lines and points of a drawing into primitive buffers
+ *  and rasterises them in one pass, instead of issuing a StdDraw call per
+ *  node. Anything outside the viewport is dropped as it is added, and only
+ *  the first point to land on each pixel is kept, so the cost of a frame
+ *  is bounded by the size of the image rather than the number of points.
+ *  Traversals use {@link #visible} and {@link #subpixel} to skip whole
+ *  subtrees.
+ */
+public class KdTreeRenderer {
+
+    private final int width, height;            // image size in pixels
+    private final double xmin, ymin, xmax, ymax;  // the viewport
+    private final int pointSize;                // side of a point's square in pixels
+
+    //  axis-aligned segments, as pixel coordinates x0, y0, x1, y1, and their colors
+    private int[] lines = new int[64];
+    private int[] lineColors = new int[16];
+    private int lineCount;
+
+    //  one pixel index per kept point, and which pixels already hold a point
+    private int[] points = new int[64];
+    private int pointCount;
+    private final long[] occupied;
+
+
+    /**
+     * Construct a renderer for a <em>width</em> x <em>height</em> image of the
+     * unit square, matching the default StdDraw canvas when both are 512
+     * @param  width the width of the image in pixels
+     * @param  height the height of the image in pixels
+     */
+    public KdTreeRenderer(int width, int height) {
+        this(width, height, 0.0, 0.0, 1.0, 1.0, 5);
+    }
+
+    /**
+     * Construct a renderer for a <em>width</em> x <em>height</em> image of
+     * the viewport [<em>xmin</em>, <em>xmax</em>] x [<em>ymin</em>, <em>ymax</em>]
+     *
+     * @param  width the width of the image in pixels
+     * @param  height the height of the image in pixels
+     * @param  xmin the <em>x</em>-coordinate of the lower-left corner of the viewport
+     * @param  ymin the <em>y</em>-coordinate of the lower-left corner of the viewport
+     * @param  xmax the <em>x</em>-coordinate of the upper-right corner of the viewport
+     * @param  ymax the <em>y</em>-coordinate of the upper-right corner of the viewport
+     * @param  pointSize the side of the square drawn for a point, in pixels
+     * @throws IllegalArgumentException if the image or the viewport is empty
+     */
+    public KdTreeRenderer(int width, int height, double xmin, double ymin, double xmax, double ymax,
+                          int pointSize) {
+        if (width <= 0 || height <= 0 || pointSize <= 0)
+            throw new IllegalArgumentException("image and point sizes must be positive");
+        if (!(xmin < xmax && ymin < ymax))
+            throw new IllegalArgumentException("empty viewport");
+        this.width = width;
+        this.height = height;
+        this.xmin = xmin;
+        this.ymin = ymin;
+        this.xmax = xmax;
+        this.ymax = ymax;
+        this.pointSize = pointSize;
+        occupied = new long[(width * height + 63) >>> 6];
+    }
+
+    /**
+     * Discards everything added so far, keeping the buffers for the next frame.
+     */
+    public void clear() {
+        lineCount = 0;
+        pointCount = 0;
+        Arrays.fill(occupied, 0L);
+    }
+
+    //  pixel column of x-coordinate x, not clamped
+    private double column(double x) {
+        return (x - xmin) / (xmax - xmin) * width;
+    }
+
+    //  pixel row of y-coordinate y, not clamped; rows grow downwards
+    private double row(double y) {
+        return (ymax - y) / (ymax - ymin) * height;
+    }
+
+
+    /***************************************************************************
+     *  Culling and level of detail.
+     ***************************************************************************/
+
+    /**
+     * Does the rectangle [<em>x0</em>, <em>x1</em>] x [<em>y0</em>, <em>y1</em>]
+     * overlap the viewport? A subtree whose zone is not visible can be skipped.
+     * @return <tt>true</tt> if the rectangle overlaps the viewport
+     */
+    public boolean visible(double x0, double y0, double x1, double y1) {
+        return x1 >= xmin && x0 <= xmax && y1 >= ymin && y0 <= ymax;
+    }
+
+    /**
+     * Does the rectangle [<em>x0</em>, <em>x1</em>] x [<em>y0</em>, <em>y1</em>]
+     * fit within one pixel? Everything drawn inside such a zone would cover
+     * at most the pixels around a single point, so one point can stand for
+     * a whole subtree.
+     * @return <tt>true</tt> if the rectangle is smaller than a pixel along both axes
+     */
+    public boolean subpixel(double x0, double y0, double x1, double y1) {
+        return (x1 - x0) / (xmax - xmin) * width < 1.0
+            && (y1 - y0) / (ymax - ymin) * height < 1.0;
+    }
+
+
+    /***************************************************************************
+     *  Buffering.
+     ***************************************************************************/
+
+    /**
+     * Adds the vertical segment from (<em>x</em>, <em>y0</em>) to (<em>x</em>, <em>y1</em>).
+     * @param color the color of the segment
+     */
+    public void verticalLine(double x, double y0, double y1, Color color) {
+        int c = (int) Math.floor(column(x));
+        if (c < 0 || c >= width) return;
+        segment(c, clampRow(row(Math.max(y0, y1))), c, clampRow(row(Math.min(y0, y1))), color);
+    }
+
+    /**
+     * Adds the horizontal segment from (<em>x0</em>, <em>y</em>) to (<em>x1</em>, <em>y</em>).
+     * @param color the color of the segment
+     */
+    public void horizontalLine(double y, double x0, double x1, Color color) {
+        int r = (int) Math.floor(row(y));
+        if (r < 0 || r >= height) return;
+        segment(clampColumn(column(Math.min(x0, x1))), r, clampColumn(column(Math.max(x0, x1))), r, color);
+    }
+
+    private int clampColumn(double c) {
+        return (int) Math.max(0, Math.min(width - 1, Math.floor(c)));
+    }
+
+    private int clampRow(double r) {
+        return (int) Math.max(0, Math.min(height - 1, Math.floor(r)));
+    }
+
+    private void segment(int x0, int y0, int x1, int y1, Color color) {
+        if (4 * lineCount == lines.length) {
+            lines = Arrays.copyOf(lines, 2 * lines.length);
+            lineColors = Arrays.copyOf(lineColors, 2 * lineColors.length);
+        }
+        int i = 4 * lineCount;
+        lines[i]     = x0;
+        lines[i + 1] = y0;
+        lines[i + 2] = x1;
+        lines[i + 3] = y1;
+        lineColors[lineCount++] = color.getRGB();
+    }
+
+    /**
+     * Adds the point (<em>x</em>, <em>y</em>), unless it is outside the
+     * viewport or another point already landed on the same pixel.
+     * @return <tt>true</tt> if the point was kept
+     */
+    public boolean point(double x, double y) {
+        double c = column(x), r = row(y);
+        if (!(c >= 0 && c < width && r >= 0 && r < height)) return false;
+        int pixel = (int) r * width + (int) c;
+        long bit = 1L << pixel;
+        if ((occupied[pixel >>> 6] & bit) != 0) return false;
+        occupied[pixel >>> 6] |= bit;
+
+        if (pointCount == points.length)
+            points = Arrays.copyOf(points, 2 * pointCount);
+        points[pointCount++] = pixel;
+        return true;
+    }
+
+    /**
+     * Returns the number of segments buffered for this frame.
+     * @return the number of segments buffered for this frame
+     */
+    public int lines() {
+        return lineCount;
+    }
+
+    /**
+     * Returns the number of points kept for this frame.
+     * @return the number of points kept for this frame
+     */
+    public int points() {
+        return pointCount;
+    }
+
+
+    /***************************************************************************
+     *  Output.
+     ***************************************************************************/
+
+    /**
+     * Rasterises the buffered segments and points into a new image with a
+     * white background, writing pixels directly: segments first, then
+     * points in black on top.
+     * @return the image
+     */
+    public BufferedImage render() {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        Arrays.fill(pixels, 0xFFFFFF);
+
+        for (int k = 0; k < lineCount; k++) {
+            int i = 4 * k, rgb = lineColors[k];
+            int x0 = lines[i], y0 = lines[i + 1], x1 = lines[i + 2], y1 = lines[i + 3];
+            if (x0 == x1)
+                for (int r = y0; r <= y1; r++) pixels[r * width + x0] = rgb;
+            else
+                Arrays.fill(pixels, y0 * width + x0, y0 * width + x1 + 1, rgb);
+        }
+
+        int half = pointSize / 2;
+        for (int k = 0; k < pointCount; k++) {
+            int r0 = points[k] / width - half, c0 = points[k] % width - half;
+            for (int r = Math.max(0, r0); r < Math.min(height, r0 + pointSize); r++) {
+                int from = r * width + Math.max(0, c0);
+                int to = r * width + Math.min(width, c0 + pointSize);
+                Arrays.fill(pixels, from, to, 0x000000);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Renders the frame and writes it to the named file, in the format
+     * given by its extension, such as <tt>png</tt>.
+     * @param filename the name of the file
+     * @throws IOException if the file cannot be written
+     */
+    public void save(String filename) throws IOException {
+        String format = filename.substring(filename.lastIndexOf('.') + 1);
+        if (!ImageIO.write(render(), format, new File(filename)))
+            throw new IOException("no image writer for " + format);
+    }
+
+    /**
+     * Draws the frame to standard draw, without clearing or showing it.
+     * StdDraw cannot blit an image, so the buffers are replayed instead:
+     * segments grouped by color and points as filled squares, both in
+     * pixel-snapped coordinates, with the pen set once per group.
+     */
+    public void draw() {
+        double dx = (xmax - xmin) / width, dy = (ymax - ymin) / height;
+
+        StdDraw.setPenRadius(.001);
+        int[] colors = Arrays.copyOf(lineColors, lineCount);
+        Arrays.sort(colors);
+        for (int j = 0; j < lineCount; j++) {
+            if (j > 0 && colors[j] == colors[j - 1]) continue;
+            StdDraw.setPenColor(new Color(colors[j]));
+            for (int k = 0; k < lineCount; k++) {
+                if (lineColors[k] != colors[j]) continue;
+                int i = 4 * k;
+                StdDraw.line(xmin + (lines[i] + 0.5) * dx,     ymax - (lines[i + 1] + 0.5) * dy,
+                             xmin + (lines[i + 2] + 0.5) * dx, ymax - (lines[i + 3] + 0.5) * dy);
+            }
+        }
+
+        StdDraw.setPenColor(StdDraw.BLACK);
+        double half = pointSize * dx / 2;
+        for (int k = 0; k < pointCount; k++) {
+            int r = points[k] / width, c = points[k] % width;
+            StdDraw.filledSquare(xmin + (c + 0.5) * dx, ymax - (r + 0.5) * dy, half);
+        }
+    }
+}
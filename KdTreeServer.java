@@ -0,0 +1,482 @@
+/******************************************************************************
+ *  Compilation:  javac KdTreeServer.java
+ *  Execution:    java KdTreeServer input.txt [port]
+ *  Dependencies: KdTreeST.java StaticKdTreeST.java MortonIndex.java
+ *
+ *  Read points from a file and answer nearest and range queries about
+ *  them on a loopback TCP port, printing the port it listens on.
+ *
+ ******************************************************************************/
+
+import edu.princeton.cs.algs4.In;
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.StdOut;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  Answers nearest and range queries on a frozen kd-tree for many clients
+ *  at once. Requests are gathered for a few microseconds into batches,
+ *  sorted by the Morton key of their query point so that consecutive
+ *  queries walk the same paths of the tree, and answered by a pool of
+ *  workers, one contiguous run of the batch each. Callers in the same
+ *  process get a <tt>CompletableFuture</tt>; other processes connect to a
+ *  loopback port and pipeline binary requests, as {@link KdTreeLoadGenerator}
+ *  does.
+ *
+ *  A request is a byte, 1 for nearest or 2 for range, a <tt>long</tt> id,
+ *  and the query: two or four doubles (<em>x</em>, <em>y</em>) or
+ *  (<em>xmin</em>, <em>ymin</em>, <em>xmax</em>, <em>ymax</em>). A reply is
+ *  the id and a status byte, 0 if the query was answered or 1 if it failed;
+ *  an answer follows, for nearest a byte (1 if there is a point) and the
+ *  point, and for range the number of points and their coordinates.
+ *  Replies may come in any order.
+ */
+public class KdTreeServer implements AutoCloseable {
+
+    static final byte NEAREST = 1;
+    static final byte RANGE   = 2;
+    static final byte OK      = 0;
+    static final byte FAILED  = 1;
+
+    private static final int MAX_BATCH = 1024;   // requests answered as one batch
+    private static final int MIN_RUN = 32;       // fewest requests handed to one worker
+
+    private final StaticKdTreeST<?> tree;
+    private final long window;                  // nanoseconds a batch waits to fill
+    private final int parallelism;
+    private final ExecutorService workers;
+    private final BlockingQueue<Request> pending = new LinkedBlockingQueue<>();
+    private final Thread dispatcher;
+    private volatile boolean closed;
+
+    private ServerSocket socket;
+    private ExecutorService connections;
+
+    //  a query waiting to be answered: nearest if rect is null, else range
+    private static final class Request {
+        private final double x, y;                  // the query point, or the center of rect
+        private final RectHV rect;
+        private final CompletableFuture<Point2D> nearest;
+        private final CompletableFuture<Iterable<Point2D>> range;
+        private long key;                           // Morton key within the batch
+
+        Request(Point2D p) {
+            x = p.x();
+            y = p.y();
+            rect = null;
+            nearest = new CompletableFuture<>();
+            range = null;
+        }
+
+        Request(RectHV rect) {
+            x = (rect.xmin() + rect.xmax()) / 2;
+            y = (rect.ymin() + rect.ymax()) / 2;
+            this.rect = rect;
+            nearest = null;
+            range = new CompletableFuture<>();
+        }
+    }
+
+
+    /**
+     * Starts a server for the given frozen tree, gathering each batch for
+     * at most <tt>window</tt> microseconds and answering batches on one
+     * worker per available processor.
+     * @param tree the tree to query
+     * @param window the longest time, in microseconds, a batch waits to fill
+     * @throws NullPointerException if <tt>tree</tt> is <tt>null</tt>
+     * @throws IllegalArgumentException if <tt>window</tt> is negative
+     */
+    public KdTreeServer(StaticKdTreeST<?> tree, long window) {
+        if (tree == null)
+            throw new java.lang.NullPointerException();
+        if (window < 0)
+            throw new IllegalArgumentException("window must be non-negative");
+        this.tree = tree;
+        this.window = TimeUnit.MICROSECONDS.toNanos(window);
+        parallelism = Runtime.getRuntime().availableProcessors();
+        workers = Executors.newFixedThreadPool(parallelism, r -> daemon(r, "kdtree-worker"));
+        dispatcher = daemon(this::dispatch, "kdtree-dispatcher");
+        dispatcher.start();
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread thread = new Thread(r, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+
+    /***************************************************************************
+     *  In-process queries.
+     ***************************************************************************/
+
+    /**
+     * Queues a nearest neighbor query.
+     * @param p the query point
+     * @return a future completed with a nearest neighbor to <tt>p</tt>,
+     *     or <tt>null</tt> if the tree is empty
+     * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+     * @throws IllegalStateException if the server is closed
+     */
+    public CompletableFuture<Point2D> nearest(Point2D p) {
+        if (p == null)
+            throw new java.lang.NullPointerException();
+        Request request = new Request(p);
+        enqueue(request);
+        return request.nearest;
+    }
+
+    /**
+     * Queues a range query.
+     * @param rect the rectangle
+     * @return a future completed with all points inside <tt>rect</tt>
+     * @throws NullPointerException if <tt>rect</tt> is <tt>null</tt>
+     * @throws IllegalStateException if the server is closed
+     */
+    public CompletableFuture<Iterable<Point2D>> range(RectHV rect) {
+        if (rect == null)
+            throw new java.lang.NullPointerException();
+        Request request = new Request(rect);
+        enqueue(request);
+        return request.range;
+    }
+
+    //  a request added while close() drains the queue is either drained and
+    //  failed there, or found and taken back here
+    private void enqueue(Request request) {
+        if (closed)
+            throw new IllegalStateException("server is closed");
+        pending.add(request);
+        if (closed && pending.remove(request))
+            throw new IllegalStateException("server is closed");
+    }
+
+
+    /***************************************************************************
+     *  Batching.
+     ***************************************************************************/
+
+    //  takes the first waiting request, spins for the window gathering more,
+    //  and hands the batch to the workers
+    private void dispatch() {
+        while (!closed) {
+            Request first;
+            try {
+                first = pending.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (first == null) continue;
+
+            List<Request> batch = new ArrayList<>();
+            batch.add(first);
+            long deadline = System.nanoTime() + window;
+            while (batch.size() < MAX_BATCH) {
+                pending.drainTo(batch, MAX_BATCH - batch.size());
+                if (batch.size() >= MAX_BATCH || System.nanoTime() - deadline >= 0) break;
+                Thread.onSpinWait();
+            }
+            submit(batch);
+        }
+        abandon();
+    }
+
+    //  fails every request still waiting in the queue
+    private void abandon() {
+        List<Request> abandoned = new ArrayList<>();
+        pending.drainTo(abandoned);
+        for (Request request : abandoned)
+            fail(request, new IllegalStateException("server is closed"));
+    }
+
+    //  sorts the batch along the Z-order curve over its bounding box and
+    //  splits it into one contiguous run per worker
+    private void submit(List<Request> batch) {
+        double xmin = Double.POSITIVE_INFINITY, ymin = Double.POSITIVE_INFINITY;
+        double xmax = Double.NEGATIVE_INFINITY, ymax = Double.NEGATIVE_INFINITY;
+        for (Request request : batch) {
+            xmin = Math.min(xmin, request.x);
+            ymin = Math.min(ymin, request.y);
+            xmax = Math.max(xmax, request.x);
+            ymax = Math.max(ymax, request.y);
+        }
+        double xscale = xmax > xmin ? Integer.MAX_VALUE / (xmax - xmin) : 0.0;
+        double yscale = ymax > ymin ? Integer.MAX_VALUE / (ymax - ymin) : 0.0;
+        for (Request request : batch) {
+            long kx = MortonIndex.spread((int) ((request.x - xmin) * xscale));
+            long ky = MortonIndex.spread((int) ((request.y - ymin) * yscale));
+            request.key = kx | ky << 1;
+        }
+        batch.sort(Comparator.comparingLong(request -> request.key));
+
+        int runs = Math.max(1, Math.min(parallelism, batch.size() / MIN_RUN));
+        for (int r = 0; r < runs; r++) {
+            List<Request> run = batch.subList(r * batch.size() / runs, (r + 1) * batch.size() / runs);
+            try {
+                workers.execute(() -> answer(run));
+            } catch (RejectedExecutionException e) {
+                for (Request request : batch.subList(r * batch.size() / runs, batch.size()))
+                    fail(request, new IllegalStateException("server is closed"));
+                return;
+            }
+        }
+    }
+
+    private void answer(List<Request> run) {
+        for (Request request : run) {
+            try {
+                if (request.rect == null)
+                    request.nearest.complete(tree.nearest(new Point2D(request.x, request.y)));
+                else
+                    request.range.complete(tree.range(request.rect));
+            } catch (RuntimeException e) {
+                fail(request, e);
+            }
+        }
+    }
+
+    private static void fail(Request request, Throwable e) {
+        if (request.rect == null) request.nearest.completeExceptionally(e);
+        else                      request.range.completeExceptionally(e);
+    }
+
+
+    /***************************************************************************
+     *  Loopback endpoint.
+     ***************************************************************************/
+
+    /**
+     * Starts accepting connections on the loopback interface, each served by
+     * a virtual thread where the runtime has them (Java 21 and later) and by
+     * a pooled platform thread otherwise.
+     * @param port the port, or 0 for any free port
+     * @return the port listened on
+     * @throws IOException if the port cannot be bound
+     * @throws IllegalStateException if the server is closed or already listening
+     */
+    public synchronized int listen(int port) throws IOException {
+        if (closed || socket != null)
+            throw new IllegalStateException("server is closed or already listening");
+        socket = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+        connections = threadPerTaskExecutor();
+        daemon(this::accept, "kdtree-acceptor").start();
+        return socket.getLocalPort();
+    }
+
+    //  an executor starting a new virtual thread per task, looked up
+    //  reflectively so the code still compiles and runs on older JDKs
+    static ExecutorService threadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> daemon(r, "kdtree-connection"));
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket client = socket.accept();
+                connections.execute(() -> serve(client));
+            } catch (IOException e) {
+                if (!closed) StdOut.println("accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    //  reads pipelined requests until the client closes its side, queueing
+    //  each reply as its future completes for a second thread to write, then
+    //  waits for the last replies; workers never block on a slow client
+    private void serve(Socket client) {
+        try (Socket s = client) {
+            s.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            Replies out = new Replies(new DataOutputStream(new BufferedOutputStream(s.getOutputStream())));
+            connections.execute(out);
+            try {
+                while (true) {
+                    byte op;
+                    try {
+                        op = in.readByte();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    long id = in.readLong();
+                    if (op == NEAREST) {
+                        Point2D p = new Point2D(in.readDouble(), in.readDouble());
+                        out.expect();
+                        nearest(p).whenComplete((q, e) -> out.add(new Reply(id, NEAREST, q, e)));
+                    } else if (op == RANGE) {
+                        double xmin = in.readDouble(), ymin = in.readDouble();
+                        double xmax = in.readDouble(), ymax = in.readDouble();
+                        out.expect();
+                        range(new RectHV(xmin, ymin, xmax, ymax)).whenComplete((r, e) -> out.add(new Reply(id, RANGE, r, e)));
+                    } else {
+                        throw new IOException("unknown request " + op);
+                    }
+                }
+                out.await();
+            } finally {
+                out.add(Reply.END);
+            }
+        } catch (IOException | RuntimeException | InterruptedException e) {
+            if (!closed) StdOut.println("connection failed: " + e);
+        }
+    }
+
+    //  the answer to one request, or the error it failed with
+    private static final class Reply {
+        static final Reply END = new Reply(0, (byte) 0, null, null);    // stops the writer
+
+        private final long id;
+        private final byte op;
+        private final Object result;    // a Point2D or an Iterable<Point2D>
+        private final Throwable error;
+
+        Reply(long id, byte op, Object result, Throwable error) {
+            this.id = id;
+            this.op = op;
+            this.result = result;
+            this.error = error;
+        }
+    }
+
+    //  the replies to one connection, queued by the workers and written by
+    //  its own thread, which flushes whenever it has caught up
+    private static final class Replies implements Runnable {
+        private final DataOutputStream out;
+        private final BlockingQueue<Reply> queue = new LinkedBlockingQueue<>();
+        private int outstanding;        // requests read but not yet replied to
+        private boolean broken;         // a write failed; drop further replies
+
+        Replies(DataOutputStream out) {
+            this.out = out;
+        }
+
+        synchronized void expect() {
+            outstanding++;
+        }
+
+        void add(Reply reply) {
+            queue.add(reply);
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (Reply reply = queue.take(); reply != Reply.END; reply = queue.take()) {
+                    if (!broken) {
+                        try {
+                            write(reply);
+                            if (queue.isEmpty()) out.flush();
+                        } catch (IOException e) {
+                            broken = true;
+                        }
+                    }
+                    replied();
+                }
+            } catch (InterruptedException e) {
+                // the server is closing
+            }
+        }
+
+        //  the id, a status byte (0 answered, 1 failed), then the answer
+        @SuppressWarnings("unchecked")
+        private void write(Reply reply) throws IOException {
+            out.writeLong(reply.id);
+            out.writeByte(reply.error == null ? OK : FAILED);
+            if (reply.error != null) return;
+            if (reply.op == NEAREST) {
+                Point2D p = (Point2D) reply.result;
+                out.writeByte(p == null ? 0 : 1);
+                out.writeDouble(p == null ? 0.0 : p.x());
+                out.writeDouble(p == null ? 0.0 : p.y());
+            } else {
+                List<Point2D> list = new ArrayList<>();
+                for (Point2D p : (Iterable<Point2D>) reply.result) list.add(p);
+                out.writeInt(list.size());
+                for (Point2D p : list) {
+                    out.writeDouble(p.x());
+                    out.writeDouble(p.y());
+                }
+            }
+        }
+
+        private synchronized void replied() {
+            if (--outstanding == 0) notifyAll();
+        }
+
+        synchronized void await() throws InterruptedException {
+            while (outstanding > 0) wait();
+        }
+    }
+
+
+    /**
+     * Stops accepting connections and requests. Queued requests that have
+     * not been handed to a worker fail with an <tt>IllegalStateException</tt>.
+     */
+    public synchronized void close() {
+        closed = true;
+        try {
+            if (socket != null) socket.close();
+        } catch (IOException e) {
+            // nothing left to release
+        }
+        if (connections != null) connections.shutdownNow();
+
+        //  the dispatcher hands over the batch it is gathering before it
+        //  stops, so the workers may only shut down once it has
+        dispatcher.interrupt();
+        boolean interrupted = false;
+        while (dispatcher.isAlive()) {
+            try {
+                dispatcher.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        abandon();
+        workers.shutdown();
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        In in = new In(args[0]);
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+        List<Point2D> points = new ArrayList<>();
+        while (!in.isEmpty()) {
+            double x = in.readDouble();
+            double y = in.readDouble();
+            points.add(new Point2D(x, y));
+        }
+        Point2D[] array = points.toArray(new Point2D[0]);
+        KdTreeST<Integer> kdtree = new KdTreeST<>(array, new Integer[array.length]);
+
+        KdTreeServer server = new KdTreeServer(kdtree.freeze(), 20);
+        StdOut.println("serving " + kdtree.size() + " points on port " + server.listen(port));
+        Thread.currentThread().join();
+    }
+}
@@ -19,6 +19,7 @@ public class KdTreeVisualizer {
         RectHV rect = new RectHV(0.0, 0.0, 1.0, 1.0);
         StdDraw.show(0);
         KdTree kdtree = new KdTree();
+        KdTreeRenderer renderer = new KdTreeRenderer(512, 512);
         while (true) {
             if (StdDraw.mousePressed()) {
                 double x = StdDraw.mouseX();
@@ -28,8 +29,10 @@ public class KdTreeVisualizer {
                 if (rect.contains(p)) {
                     StdOut.printf("%8.6f %8.6f\n", x, y);
                     kdtree.insert(p);
+                    renderer.clear();
+                    kdtree.draw(renderer);
                     StdDraw.clear();
-                    kdtree.draw();
+                    renderer.draw();
                 }
             }
             StdDraw.show(50);
@@ -0,0 +1,238 @@
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.SET;
+
+import java.util.Arrays;
+
+/**
+ *  A symbol table from Point2D objects to values for write-heavy workloads,
+ *  built with the logarithmic method of Bentley and Saxe. New pairs collect
+ *  in a small buffer; a full buffer is merged with the levels below the
+ *  first empty one into a single perfectly balanced {@link StaticKdTreeST},
+ *  like carrying in a binary counter. Level i holds at most
+ *  BUFFER * 2<sup>i</sup> pairs, so there are O(log n) levels, each with an
+ *  optimal shape, and a pair is rebuilt O(log n) times, for amortized
+ *  O(log<sup>2</sup> n) insertion.
+ *
+ *  Lower levels are newer: when a point is updated after it has been
+ *  merged, the newer value shadows the older one until their levels meet.
+ */
+public class LogarithmicKdTreeST<Value> {
+
+    private static final int BUFFER = 64;   // pairs collected before a merge
+
+    private int N;
+    private final Point2D[] bufferPoints = new Point2D[BUFFER];
+    private final Value[] bufferVals;
+    private int buffered;
+    private StaticKdTreeST<Value>[] levels;
+
+    @SuppressWarnings("unchecked")
+    public LogarithmicKdTreeST() {
+        bufferVals = (Value[]) new Object[BUFFER];
+        levels = (StaticKdTreeST<Value>[]) new StaticKdTreeST<?>[1];
+    }
+
+
+    /**
+     * Is this symbol table empty?
+     * @return <tt>true</tt> if this symbol table is empty and <tt>false</tt> otherwise
+     */
+    public boolean isEmpty() {
+        return N == 0;
+    }
+
+
+    /**
+     * Returns the number of point-value pairs in this symbol table.
+     * @return the number of point-value pairs in this symbol table
+     */
+    public int size() {
+        return N;
+    }
+
+
+    //  throws a NullPointerException if parameter is null
+    private void verify(Object o) {
+        if (o == null)
+            throw new java.lang.NullPointerException();
+    }
+
+
+    /***************************************************************************
+     *  Insertion.
+     ***************************************************************************/
+
+    /**
+     * Inserts the specified point-value pair into the symbol table, overwriting the old
+     * value with the new value if the symbol table already contains the specified point.
+     *
+     * @param p the point
+     * @param val the value
+     * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+     */
+    public void put(Point2D p, Value val) {
+        verify(p);
+        for (int i = 0; i < buffered; i++) {
+            if (bufferPoints[i].equals(p)) {
+                bufferVals[i] = val;
+                return;
+            }
+        }
+
+        if (!contains(p)) N++;
+        bufferPoints[buffered] = p;
+        bufferVals[buffered] = val;
+        if (++buffered == BUFFER) flush();
+    }
+
+
+    /**
+     * Inserts every point-value pair, in order, as repeated calls to
+     * <tt>put</tt> would.
+     *
+     * @param points the points
+     * @param vals the values; <tt>vals[i]</tt> is associated with <tt>points[i]</tt>
+     * @throws NullPointerException if an array or a point is <tt>null</tt>
+     * @throws IllegalArgumentException if the arrays differ in length
+     */
+    public void putAll(Point2D[] points, Value[] vals) {
+        verify(points);
+        verify(vals);
+        if (points.length != vals.length)
+            throw new IllegalArgumentException("points and values differ in length");
+        for (int i = 0; i < points.length; i++)
+            put(points[i], vals[i]);
+    }
+
+    //  merges the buffer and the levels below the first empty level into it
+    @SuppressWarnings("unchecked")
+    private void flush() {
+        int level = 0;
+        int n = buffered;
+        while (level < levels.length && levels[level] != null)
+            n += levels[level++].size();
+        if (level == levels.length)
+            levels = Arrays.copyOf(levels, levels.length + 1);
+
+        //  oldest pairs first, so that the balanced build keeps the newest value
+        Point2D[] points = new Point2D[n];
+        Value[] vals = (Value[]) new Object[n];
+        int k = 0;
+        for (int i = level - 1; i >= 0; i--) {
+            for (int slot = 0; slot < levels[i].size(); slot++) {
+                points[k] = levels[i].point(slot);
+                vals[k++] = levels[i].value(slot);
+            }
+            levels[i] = null;
+        }
+        for (int i = 0; i < buffered; i++) {
+            points[k] = bufferPoints[i];
+            vals[k++] = bufferVals[i];
+            bufferPoints[i] = null;
+            bufferVals[i] = null;
+        }
+        buffered = 0;
+
+        levels[level] = new KdTreeST<>(points, vals).freeze();
+    }
+
+
+    /***************************************************************************
+     *  Search.
+     ***************************************************************************/
+
+    /**
+     * Returns the value associated with the given point.
+     * @param p the point
+     * @return the value associated with the given point if the point is in the symbol table
+     *     and <tt>null</tt> if the point is not in the symbol table
+     * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+     */
+    public Value get(Point2D p) {
+        verify(p);
+        for (int i = 0; i < buffered; i++) {
+            if (bufferPoints[i].equals(p))
+                return bufferVals[i];
+        }
+        for (StaticKdTreeST<Value> level : levels) {
+            if (level != null && level.contains(p))
+                return level.get(p);
+        }
+        return null;
+    }
+
+
+    /**
+     * Does this symbol table contain the given point?
+     * @param p the point
+     * @return <tt>true</tt> if this symbol table contains <tt>p</tt> and
+     *     <tt>false</tt> otherwise
+     * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+     */
+    public boolean contains(Point2D p) {
+        verify(p);
+        for (int i = 0; i < buffered; i++) {
+            if (bufferPoints[i].equals(p))
+                return true;
+        }
+        for (StaticKdTreeST<Value> level : levels) {
+            if (level != null && level.contains(p))
+                return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * Returns all points that are inside the rectangle, merged over all levels.
+     * @return all keys that are inside the rectangle <tt>rect</tt> as
+     * an <tt>Iterable</tt>
+     * @throws NullPointerException if <tt>rect</tt> is <tt>null</tt>
+     */
+    public Iterable<Point2D> range(RectHV rect) {
+        verify(rect);
+        SET<Point2D> set = new SET<>();
+        for (int i = 0; i < buffered; i++) {
+            if (rect.contains(bufferPoints[i]))
+                set.add(bufferPoints[i]);
+        }
+        for (StaticKdTreeST<Value> level : levels) {
+            if (level == null) continue;
+            for (Point2D p : level.range(rect))
+                set.add(p);
+        }
+        return set;
+    }
+
+
+    /**
+     * Returns a nearest neighbor in the symbol table to point p, the closest
+     * of the nearest neighbors in every level.
+     * @return a nearest neighbor in the symbol table to point <tt>p</tt>;
+     *     <tt>null</tt> if the symbol table is empty
+     * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+     */
+    public Point2D nearest(Point2D p) {
+        verify(p);
+        Point2D champion = null;
+        double minDistance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < buffered; i++) {
+            double distance = bufferPoints[i].distanceSquaredTo(p);
+            if (distance < minDistance) {
+                minDistance = distance;
+                champion = bufferPoints[i];
+            }
+        }
+        for (StaticKdTreeST<Value> level : levels) {
+            if (level == null || level.isEmpty()) continue;
+            Point2D candidate = level.nearest(p);
+            double distance = candidate.distanceSquaredTo(p);
+            if (distance < minDistance) {
+                minDistance = distance;
+                champion = candidate;
+            }
+        }
+        return champion;
+    }
+}
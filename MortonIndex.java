@@ -0,0 +1,377 @@
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.Queue;
+import edu.princeton.cs.algs4.RectHV;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ *  An immutable set of points stored as a sorted array of 62-bit Morton
+ *  (Z-order) keys, with the exact coordinates in parallel arrays. Each
+ *  coordinate is scaled to 31 bits over the bounding box of the points
+ *  and the bits of the two are interleaved, so points close in the plane
+ *  tend to be close in the array. Beyond the three arrays there is no
+ *  structure at all: a range search is a scan of the key interval of the
+ *  rectangle that jumps over runs of keys outside it, and the whole index
+ *  is written and read back as three arrays.
+ */
+public class MortonIndex {
+
+    private static final int BITS = 31;                 // bits per coordinate
+    private static final int MAX = (1 << BITS) - 1;     // largest scaled coordinate
+    private static final long EVEN = 0x1555555555555555L;   // bits of the x-coordinate
+    private static final long ODD  = EVEN << 1;              // bits of the y-coordinate
+    private static final int WINDOW = 16;   // keys on either side tried first by nearest
+
+    private final double xmin, ymin, xmax, ymax;    // bounding box of the points
+    private final double xscale, yscale;            // scaled units per unit of length
+    private final long[] keys;                      // sorted Morton keys
+    private final double[] xs, ys;                  // coordinates of the point of each key
+
+
+    /**
+     * Construct the index of the given points. Repeated points are kept once.
+     * @param points the points
+     * @throws NullPointerException if the array or a point is <tt>null</tt>
+     */
+    public MortonIndex(Point2D[] points) {
+        verify(points);
+        int n = points.length;
+        double xmin = Double.POSITIVE_INFINITY, ymin = Double.POSITIVE_INFINITY;
+        double xmax = Double.NEGATIVE_INFINITY, ymax = Double.NEGATIVE_INFINITY;
+        for (Point2D p : points) {
+            verify(p);
+            xmin = Math.min(xmin, p.x());
+            ymin = Math.min(ymin, p.y());
+            xmax = Math.max(xmax, p.x());
+            ymax = Math.max(ymax, p.y());
+        }
+        this.xmin = xmin;
+        this.ymin = ymin;
+        this.xmax = xmax;
+        this.ymax = ymax;
+        xscale = xmax > xmin ? MAX / (xmax - xmin) : 0.0;
+        yscale = ymax > ymin ? MAX / (ymax - ymin) : 0.0;
+
+        long[] keys = new long[n];
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = key(points[i].x(), points[i].y());
+            order[i] = i;
+        }
+        sort(keys, order);
+
+        //  drop repeated points, which share a key and so a run of the array
+        double[] xs = new double[n], ys = new double[n];
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            Point2D p = points[order[i]];
+            boolean repeated = false;
+            for (int j = m - 1; j >= 0 && keys[j] == keys[i] && !repeated; j--)
+                repeated = xs[j] == p.x() && ys[j] == p.y();
+            if (repeated) continue;
+            keys[m] = keys[i];
+            xs[m] = p.x();
+            ys[m++] = p.y();
+        }
+        this.keys = Arrays.copyOf(keys, m);
+        this.xs = Arrays.copyOf(xs, m);
+        this.ys = Arrays.copyOf(ys, m);
+    }
+
+    private MortonIndex(double xmin, double ymin, double xmax, double ymax,
+                        long[] keys, double[] xs, double[] ys) {
+        this.xmin = xmin;
+        this.ymin = ymin;
+        this.xmax = xmax;
+        this.ymax = ymax;
+        xscale = xmax > xmin ? MAX / (xmax - xmin) : 0.0;
+        yscale = ymax > ymin ? MAX / (ymax - ymin) : 0.0;
+        this.keys = keys;
+        this.xs = xs;
+        this.ys = ys;
+    }
+
+
+    /**
+     * Is this index empty?
+     * @return <tt>true</tt> if this index is empty and <tt>false</tt> otherwise
+     */
+    public boolean isEmpty() {
+        return keys.length == 0;
+    }
+
+    /**
+     * Returns the number of points in this index.
+     * @return the number of points in this index
+     */
+    public int size() {
+        return keys.length;
+    }
+
+
+    //  throws a NullPointerException if parameter is null
+    private static void verify(Object o) {
+        if (o == null)
+            throw new java.lang.NullPointerException();
+    }
+
+
+    /***************************************************************************
+     *  Morton keys.
+     ***************************************************************************/
+
+    //  scaled coordinates, clamped to the bounding box; monotone, so a point
+    //  inside a rectangle scales to inside the scaled rectangle
+    private int scaleX(double x) {
+        return (int) Math.max(0, Math.min(MAX, (x - xmin) * xscale));
+    }
+
+    private int scaleY(double y) {
+        return (int) Math.max(0, Math.min(MAX, (y - ymin) * yscale));
+    }
+
+    private long key(double x, double y) {
+        return spread(scaleX(x)) | spread(scaleY(y)) << 1;
+    }
+
+    //  the 31 low bits of v moved to the even bit positions
+    static long spread(int v) {
+        long x = v & 0x7FFFFFFFL;
+        x = (x | x << 16) & 0x0000FFFF0000FFFFL;
+        x = (x | x << 8)  & 0x00FF00FF00FF00FFL;
+        x = (x | x << 4)  & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | x << 2)  & 0x3333333333333333L;
+        x = (x | x << 1)  & 0x5555555555555555L;
+        return x;
+    }
+
+    //  the even bits of x gathered into an int; the inverse of spread
+    private static int compact(long x) {
+        x &= 0x5555555555555555L;
+        x = (x | x >>> 1)  & 0x3333333333333333L;
+        x = (x | x >>> 2)  & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | x >>> 4)  & 0x00FF00FF00FF00FFL;
+        x = (x | x >>> 8)  & 0x0000FFFF0000FFFFL;
+        x = (x | x >>> 16) & 0x00000000FFFFFFFFL;
+        return (int) x;
+    }
+
+    //  the smallest key greater than z inside the box with corner keys zmin
+    //  and zmax, for a key z between them but outside the box (Tropf and
+    //  Herzog's BIGMIN): where the bits of z leave the box, the search either
+    //  continues in the upper half or gives up on the current candidate
+    static long bigmin(long z, long zmin, long zmax) {
+        long bigmin = zmin;
+        for (int bit = 2 * BITS - 1; bit >= 0; bit--) {
+            long mask = 1L << bit;
+            long below = (bit % 2 == 0 ? EVEN : ODD) & (mask - 1);  // lower bits of this dimension
+            boolean v = (z & mask) != 0, lo = (zmin & mask) != 0, hi = (zmax & mask) != 0;
+            if (!v && !lo && hi) {
+                bigmin = (zmin | mask) & ~below;
+                zmax = (zmax & ~mask) | below;
+            } else if (!v && lo && hi) {
+                return zmin;
+            } else if (v && !lo && !hi) {
+                return bigmin;
+            } else if (v && !lo && hi) {
+                zmin = (zmin | mask) & ~below;
+            }
+        }
+        return bigmin;
+    }
+
+    //  sorts keys, and order along with them, by a stable radix sort on bytes
+    private static void sort(long[] keys, int[] order) {
+        int n = keys.length;
+        long[] k2 = new long[n];
+        int[] o2 = new int[n];
+        for (int shift = 0; shift < 2 * BITS; shift += 8) {
+            int[] count = new int[257];
+            for (int i = 0; i < n; i++)
+                count[(int) (keys[i] >>> shift & 0xFF) + 1]++;
+            for (int r = 0; r < 256; r++)
+                count[r + 1] += count[r];
+            for (int i = 0; i < n; i++) {
+                int j = count[(int) (keys[i] >>> shift & 0xFF)]++;
+                k2[j] = keys[i];
+                o2[j] = order[i];
+            }
+            System.arraycopy(k2, 0, keys, 0, n);
+            System.arraycopy(o2, 0, order, 0, n);
+        }
+    }
+
+    //  index of the first key not less than z, searching from index lo
+    private int lowerBound(long z, int lo) {
+        int hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < z) lo = mid + 1;
+            else               hi = mid;
+        }
+        return lo;
+    }
+
+
+    /***************************************************************************
+     *  Search.
+     ***************************************************************************/
+
+    /**
+     * Does this index contain the given point?
+     * @param p the point
+     * @return <tt>true</tt> if this index contains <tt>p</tt> and
+     *     <tt>false</tt> otherwise
+     * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+     */
+    public boolean contains(Point2D p) {
+        verify(p);
+        long z = key(p.x(), p.y());
+        for (int i = lowerBound(z, 0); i < keys.length && keys[i] == z; i++) {
+            if (xs[i] == p.x() && ys[i] == p.y())
+                return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * Returns all points that are inside the rectangle, in key order. The
+     * keys between the corners of the rectangle are scanned in order; a key
+     * outside the rectangle jumps the scan to the next key that can be inside.
+     * @return all keys that are inside the rectangle <tt>rect</tt> as
+     * an <tt>Iterable</tt>
+     * @throws NullPointerException if <tt>rect</tt> is <tt>null</tt>
+     */
+    public Iterable<Point2D> range(RectHV rect) {
+        verify(rect);
+        Queue<Point2D> inside = new Queue<>();
+        if (isEmpty() || rect.xmax() < xmin || rect.xmin() > xmax
+                      || rect.ymax() < ymin || rect.ymin() > ymax)
+            return inside;
+
+        int qxmin = scaleX(rect.xmin()), qxmax = scaleX(rect.xmax());
+        int qymin = scaleY(rect.ymin()), qymax = scaleY(rect.ymax());
+        long zmin = spread(qxmin) | spread(qymin) << 1;
+        long zmax = spread(qxmax) | spread(qymax) << 1;
+
+        int i = lowerBound(zmin, 0);
+        while (i < keys.length && keys[i] <= zmax) {
+            int qx = compact(keys[i]), qy = compact(keys[i] >>> 1);
+            if (qx >= qxmin && qx <= qxmax && qy >= qymin && qy <= qymax) {
+                if (xs[i] >= rect.xmin() && xs[i] <= rect.xmax()
+                        && ys[i] >= rect.ymin() && ys[i] <= rect.ymax())
+                    inside.enqueue(new Point2D(xs[i], ys[i]));
+                i++;
+            } else {
+                i = lowerBound(bigmin(keys[i], zmin, zmax), i + 1);
+            }
+        }
+        return inside;
+    }
+
+
+    /**
+     * Returns a nearest neighbor in this index to point p. The keys on
+     * either side of the key of p give a first candidate; the square around
+     * p reaching that candidate is then searched like a range.
+     * @return a nearest neighbor in this index to point <tt>p</tt>;
+     *     <tt>null</tt> if this index is empty
+     * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+     */
+    public Point2D nearest(Point2D p) {
+        verify(p);
+        if (isEmpty()) return null;
+        double px = p.x(), py = p.y();
+
+        int at = lowerBound(key(px, py), 0);
+        int champion = -1;
+        double minDistance = Double.POSITIVE_INFINITY;
+        for (int i = Math.max(0, at - WINDOW); i < Math.min(keys.length, at + WINDOW); i++) {
+            double distance = distanceSquared(i, px, py);
+            if (distance < minDistance) {
+                minDistance = distance;
+                champion = i;
+            }
+        }
+
+        //  any closer point lies in the square of half side d around p
+        double d = Math.sqrt(minDistance);
+        int qxmin = scaleX(px - d), qxmax = scaleX(px + d);
+        int qymin = scaleY(py - d), qymax = scaleY(py + d);
+        long zmin = spread(qxmin) | spread(qymin) << 1;
+        long zmax = spread(qxmax) | spread(qymax) << 1;
+
+        int i = lowerBound(zmin, 0);
+        while (i < keys.length && keys[i] <= zmax) {
+            int qx = compact(keys[i]), qy = compact(keys[i] >>> 1);
+            if (qx >= qxmin && qx <= qxmax && qy >= qymin && qy <= qymax) {
+                double distance = distanceSquared(i, px, py);
+                if (distance < minDistance) {
+                    minDistance = distance;
+                    champion = i;
+                }
+                i++;
+            } else {
+                i = lowerBound(bigmin(keys[i], zmin, zmax), i + 1);
+            }
+        }
+        return new Point2D(xs[champion], ys[champion]);
+    }
+
+    private double distanceSquared(int i, double px, double py) {
+        double dx = xs[i] - px, dy = ys[i] - py;
+        return dx * dx + dy * dy;
+    }
+
+
+    /***************************************************************************
+     *  Serialization.
+     ***************************************************************************/
+
+    /**
+     * Writes this index to the stream: the bounding box, the number of
+     * points, and the keys and coordinates as three arrays.
+     * @param out the stream, which is flushed but not closed
+     * @throws IOException if the stream cannot be written
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeDouble(xmin);
+        data.writeDouble(ymin);
+        data.writeDouble(xmax);
+        data.writeDouble(ymax);
+        data.writeInt(keys.length);
+        for (long z : keys)  data.writeLong(z);
+        for (double x : xs)  data.writeDouble(x);
+        for (double y : ys)  data.writeDouble(y);
+        data.flush();
+    }
+
+    /**
+     * Reads an index written by {@link #writeTo}. The stream is read without
+     * buffering beyond the index, so wrap it in a <tt>BufferedInputStream</tt>
+     * unless it is buffered already.
+     * @param in the stream, which is not closed
+     * @return the index
+     * @throws IOException if the stream cannot be read
+     */
+    public static MortonIndex readFrom(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        double xmin = data.readDouble(), ymin = data.readDouble();
+        double xmax = data.readDouble(), ymax = data.readDouble();
+        int n = data.readInt();
+        long[] keys = new long[n];
+        double[] xs = new double[n], ys = new double[n];
+        for (int i = 0; i < n; i++) keys[i] = data.readLong();
+        for (int i = 0; i < n; i++) xs[i] = data.readDouble();
+        for (int i = 0; i < n; i++) ys[i] = data.readDouble();
+        return new MortonIndex(xmin, ymin, xmax, ymax, keys, xs, ys);
+    }
+}
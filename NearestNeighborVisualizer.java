@@ -24,7 +24,7 @@ public class NearestNeighborVisualizer {
 
         // initialize the two data structures with point from standard input
         PointSET brute = new PointSET();
-        KdTree kdtree = new KdTree();
+        SpatialIndex kdtree = new KdTree();
         while (!in.isEmpty()) {
             double x = in.readDouble();
             double y = in.readDouble();
@@ -33,6 +33,10 @@ public class NearestNeighborVisualizer {
             brute.insert(p);
         }
 
+        // buffer the points once; each frame replays at most one point per pixel
+        KdTreeRenderer renderer = new KdTreeRenderer(512, 512);
+        brute.draw(renderer);
+
 
         double x = 0.21;
         double y = 0.35;
@@ -40,9 +44,7 @@ public class NearestNeighborVisualizer {
 
         // draw all of the points
         StdDraw.clear();
-        StdDraw.setPenColor(StdDraw.BLACK);
-        StdDraw.setPenRadius(.01);
-        brute.draw();
+        renderer.draw();
 
         // draw in red the nearest neighbor (using brute-force algorithm)
         StdDraw.setPenRadius(.03);
@@ -25,15 +25,24 @@ public class NearestNeighborVisualizerInteractive {
 
         // initialize the two data structures with point from standard input
         PointSET brute = new PointSET();
-        KdTree kdtree = new KdTree();
+        KdTreeST<Integer> kdtree = new KdTreeST<>();
         while (!in.isEmpty()) {
             double x = in.readDouble();
             double y = in.readDouble();
             Point2D p = new Point2D(x, y);
-            kdtree.insert(p);
+            kdtree.put(p, 0);
             brute.insert(p);
         }
 
+        // buffer the points once; each frame replays at most one point per pixel
+        KdTreeRenderer renderer = new KdTreeRenderer(512, 512);
+        brute.draw(renderer);
+
+        // the mouse rests on the same spot for many frames in a row
+        // the brute-force set has no cache of its own, so keep its last answer
+        kdtree.enableCache(1);
+        Point2D lastQuery = null, nearestBr = null;
+
         while (true) {
 
             // the location (x, y) of the mouse
@@ -43,14 +52,15 @@ public class NearestNeighborVisualizerInteractive {
 
             // draw all of the points
             StdDraw.clear();
-            StdDraw.setPenColor(StdDraw.BLACK);
-            StdDraw.setPenRadius(.01);
-            brute.draw();
+            renderer.draw();
 
             // draw in red the nearest neighbor (using brute-force algorithm)
             StdDraw.setPenRadius(.03);
             StdDraw.setPenColor(StdDraw.RED);
-            Point2D nearestBr = brute.nearest(query);
+            if (!query.equals(lastQuery)) {
+                lastQuery = query;
+                nearestBr = brute.nearest(query);
+            }
             if (nearestBr != null) nearestBr.draw();
             StdDraw.setPenRadius(.02);
 
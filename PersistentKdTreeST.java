@@ -0,0 +1,279 @@
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.SET;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ *  A symbol table from Point2D objects to values that may be read by any
+ *  number of threads while it is being updated. Every update copies the
+ *  path from the root to the changed node and shares all other subtrees
+ *  with the previous version, so a {@link Snapshot} never changes once it
+ *  has been taken and readers never block.
+ */
+public class PersistentKdTreeST<Value> {
+
+    public static final boolean VERTICAL   = true;
+    public static final boolean HORIZONTAL = false;
+
+    //  immutable tree node; an update replaces the nodes on its path
+    private static final class Node<Value> {
+        private final Point2D p;        // the point
+        private final Value val;
+        private final Node<Value> lb;   // the left/bottom subtree
+        private final Node<Value> rt;   // the right/top subtree
+        private final boolean orientation;
+
+        public Node(Point2D p, Value val, boolean orientation, Node<Value> lb, Node<Value> rt) {
+            this.p = p;
+            this.val = val;
+            this.orientation = orientation;
+            this.lb = lb;
+            this.rt = rt;
+        }
+
+        //  returns a positive integer if this point on the right
+        //  or top of that point, and vice versa (0 if equal).
+        public int compareTo(Point2D that) {
+            double cmp;
+            if (this.orientation == VERTICAL)
+                cmp = this.p.x() - that.x();
+            else
+                cmp = this.p.y() - that.y();
+
+            if      (cmp > 0) return  1;
+            else if (cmp < 0) return -1;
+            else              return  0;
+        }
+    }
+
+    private final AtomicReference<Snapshot<Value>> current =
+            new AtomicReference<>(new Snapshot<Value>(null, 0));
+
+
+    /**
+     * Returns the current version of the symbol table. The snapshot is
+     * immutable and unaffected by later calls to <tt>put</tt>.
+     * @return the current version of the symbol table
+     */
+    public Snapshot<Value> snapshot() {
+        return current.get();
+    }
+
+
+    /**
+     * Inserts the specified point-value pair into the symbol table, overwriting the old
+     * value with the new value if the symbol table already contains the specified point.
+     * Concurrent writers retry until their version is published; readers are never blocked.
+     *
+     * @param p the point
+     * @param val the value
+     * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+     */
+    public void put(Point2D p, Value val) {
+        verify(p);
+        while (true) {
+            Snapshot<Value> before = current.get();
+            if (current.compareAndSet(before, before.put(p, val)))
+                return;
+        }
+    }
+
+    //  each of the following reads the version current at the time of the call
+    public boolean isEmpty()                  { return snapshot().isEmpty(); }
+    public int size()                         { return snapshot().size(); }
+    public Value get(Point2D p)               { return snapshot().get(p); }
+    public boolean contains(Point2D p)        { return snapshot().contains(p); }
+    public Iterable<Point2D> range(RectHV r)  { return snapshot().range(r); }
+    public Point2D nearest(Point2D p)         { return snapshot().nearest(p); }
+
+
+    //  throws a NullPointerException if parameter is null
+    private static void verify(Object o) {
+        if (o == null)
+            throw new java.lang.NullPointerException();
+    }
+
+
+    /**
+     *  One immutable version of the symbol table.
+     */
+    public static final class Snapshot<Value> {
+        private final Node<Value> root;
+        private final int N;
+
+        private Snapshot(Node<Value> root, int N) {
+            this.root = root;
+            this.N = N;
+        }
+
+        /**
+         * Is this version empty?
+         * @return <tt>true</tt> if this version is empty and <tt>false</tt> otherwise
+         */
+        public boolean isEmpty() {
+            return root == null;
+        }
+
+        /**
+         * Returns the number of point-value pairs in this version.
+         * @return the number of point-value pairs in this version
+         */
+        public int size() {
+            return N;
+        }
+
+
+        /***********************************************************************
+         *  Path-copying insertion.
+         ***********************************************************************/
+
+        /**
+         * Returns a new version with the specified point-value pair inserted,
+         * sharing every subtree off the insertion path with this version.
+         *
+         * @param p the point
+         * @param val the value
+         * @return the new version
+         * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+         */
+        public Snapshot<Value> put(Point2D p, Value val) {
+            verify(p);
+            int size = contains(p) ? N : N + 1;
+            return new Snapshot<>(put(root, p, val, VERTICAL), size);
+        }
+
+        //  copy of the subtree rooted at x with the point-value pair inserted
+        private Node<Value> put(Node<Value> x, Point2D p, Value val, boolean orientation) {
+            if (x == null)
+                return new Node<>(p, val, orientation, null, null);
+
+            if (x.p.equals(p))
+                return new Node<>(x.p, val, x.orientation, x.lb, x.rt);
+            else if (x.compareTo(p) > 0)
+                return new Node<>(x.p, x.val, x.orientation, put(x.lb, p, val, !x.orientation), x.rt);
+            else
+                return new Node<>(x.p, x.val, x.orientation, x.lb, put(x.rt, p, val, !x.orientation));
+        }
+
+
+        /***********************************************************************
+         *  Search.
+         ***********************************************************************/
+
+        /**
+         * Returns the value associated with the given point.
+         * @param p the point
+         * @return the value associated with the given point if the point is in this version
+         *     and <tt>null</tt> if the point is not in this version
+         * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+         */
+        public Value get(Point2D p) {
+            verify(p);
+            Node<Value> x = get(root, p);
+            return x == null ? null : x.val;
+        }
+
+        /**
+         * Does this version contain the given point?
+         * @param p the point
+         * @return <tt>true</tt> if this version contains <tt>p</tt> and
+         *     <tt>false</tt> otherwise
+         * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+         */
+        public boolean contains(Point2D p) {
+            verify(p);
+            return get(root, p) != null;
+        }
+
+        private Node<Value> get(Node<Value> x, Point2D p) {
+            while (x != null) {
+                if (x.p.equals(p))
+                    return x;
+                x = x.compareTo(p) > 0 ? x.lb : x.rt;
+            }
+            return null;
+        }
+
+
+        /***********************************************************************
+         *  Range search
+         ***********************************************************************/
+
+        /**
+         * Returns all points of this version that are inside the rectangle.
+         * @return all keys that are inside the rectangle <tt>rect</tt> as
+         * an <tt>Iterable</tt>
+         * @throws NullPointerException if <tt>rect</tt> is <tt>null</tt>
+         */
+        public Iterable<Point2D> range(RectHV rect) {
+            verify(rect);
+            SET<Point2D> set = new SET<>();
+            range(root, rect, set);
+            return set;
+        }
+
+        private void range(Node<Value> x, RectHV rect, SET<Point2D> set) {
+            if (x == null) return;
+
+            double split = x.orientation == VERTICAL ? x.p.x() : x.p.y();
+            double min   = x.orientation == VERTICAL ? rect.xmin() : rect.ymin();
+            double max   = x.orientation == VERTICAL ? rect.xmax() : rect.ymax();
+
+            if (split >= min)           range(x.lb, rect, set);
+            if (split <= max)           range(x.rt, rect, set);
+            if (rect.contains(x.p))     set.add(x.p);
+        }
+
+
+        /***********************************************************************
+         *  Nearest neighbor search
+         ***********************************************************************/
+
+        /**
+         * Returns a nearest neighbor in this version to point p
+         * @return a nearest neighbor in this version to point <tt>p</tt>;
+         *     <tt>null</tt> if this version is empty
+         * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+         */
+        public Point2D nearest(Point2D p) {
+            verify(p);
+            //  the champion distance lives in a local cell, not a field,
+            //  since a snapshot is shared between reader threads
+            double[] minDistance = { Double.POSITIVE_INFINITY };
+            double inf = Double.POSITIVE_INFINITY;
+            return nearest(root, p, null, minDistance, -inf, -inf, inf, inf);
+        }
+
+        private Point2D nearest(Node<Value> x, Point2D p, Point2D champion, double[] minDistance,
+                                double xmin, double ymin, double xmax, double ymax) {
+            if (x == null)
+                return champion;
+
+            double distance = x.p.distanceSquaredTo(p);
+            if (distance < minDistance[0]) {
+                minDistance[0] = distance;
+                champion = x.p;
+            }
+            if (minDistance[0] == 0)
+                return champion;
+
+            double lbXmax = xmax, lbYmax = ymax, rtXmin = xmin, rtYmin = ymin;
+            if (x.orientation == VERTICAL) lbXmax = rtXmin = x.p.x();
+            else                           lbYmax = rtYmin = x.p.y();
+
+            double px = p.x(), py = p.y();
+            if (x.compareTo(p) > 0) {
+                champion = nearest(x.lb, p, champion, minDistance, xmin, ymin, lbXmax, lbYmax);
+                if (StaticKdTreeST.distanceSquared(px, py, rtXmin, rtYmin, xmax, ymax) <= minDistance[0])
+                    champion = nearest(x.rt, p, champion, minDistance, rtXmin, rtYmin, xmax, ymax);
+            } else {
+                champion = nearest(x.rt, p, champion, minDistance, rtXmin, rtYmin, xmax, ymax);
+                if (StaticKdTreeST.distanceSquared(px, py, xmin, ymin, lbXmax, lbYmax) <= minDistance[0])
+                    champion = nearest(x.lb, p, champion, minDistance, xmin, ymin, lbXmax, lbYmax);
+            }
+
+            return champion;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+import edu.princeton.cs.algs4.Point2D;
+
+/**
+ *  An unordered pair of distinct points, as reported by the closest-pair
+ *  queries of {@link KdTreeST}. The smaller point in the order of
+ *  <tt>Point2D.compareTo</tt> comes first, so equal pairs look the same.
+ *  Pairs compare by distance.
+ */
+public class PointPair implements Comparable<PointPair> {
+
+    private final Point2D p, q;
+    private final double distanceSquared;
+
+    PointPair(Point2D p, Point2D q, double distanceSquared) {
+        if (p.compareTo(q) <= 0) {
+            this.p = p;
+            this.q = q;
+        } else {
+            this.p = q;
+            this.q = p;
+        }
+        this.distanceSquared = distanceSquared;
+    }
+
+    /**
+     * Returns the smaller point of the pair.
+     * @return the smaller point of the pair
+     */
+    public Point2D first() {
+        return p;
+    }
+
+    /**
+     * Returns the larger point of the pair.
+     * @return the larger point of the pair
+     */
+    public Point2D second() {
+        return q;
+    }
+
+    /**
+     * Returns the Euclidean distance between the two points.
+     * @return the Euclidean distance between the two points
+     */
+    public double distance() {
+        return Math.sqrt(distanceSquared);
+    }
+
+    /**
+     * Returns the square of the Euclidean distance between the two points.
+     * @return the square of the Euclidean distance between the two points
+     */
+    public double distanceSquared() {
+        return distanceSquared;
+    }
+
+    public int compareTo(PointPair that) {
+        return Double.compare(this.distanceSquared, that.distanceSquared);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other == this) return true;
+        if (other == null || other.getClass() != this.getClass()) return false;
+        PointPair that = (PointPair) other;
+        return this.p.equals(that.p) && this.q.equals(that.q);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * p.hashCode() + q.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return p + " - " + q;
+    }
+}
@@ -1,14 +1,47 @@
 import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.Queue;
 import edu.princeton.cs.algs4.RectHV;
 import edu.princeton.cs.algs4.SET;
 import edu.princeton.cs.algs4.StdDraw;
 
-public class PointSET {
+/**
+ *  A brute-force set of points. In columnar mode the coordinates are also
+ *  kept in two <tt>double[]</tt> columns, so that <tt>range</tt>,
+ *  <tt>nearest</tt> and <tt>within</tt> scan flat primitive arrays instead
+ *  of walking the red-black tree of Point2D objects. The scans of
+ *  <tt>range</tt> and <tt>within</tt> write matching rows to a scratch
+ *  buffer without branching on the test and build the result afterwards,
+ *  so a hit costs no mispredicted branch. For small sets such a scan beats
+ *  any tree; see {@link PointSETBenchmark} for the crossover with KdTree.
+ */
+public class PointSET implements SpatialIndex {
     private SET<Point2D> points;
 
+    private final boolean columnar;
+    private double[] xs, ys;            // coordinate columns, in insertion order
+    private Point2D[] column;           // the point of each row
+    private int n;                      // number of rows
+    private int[] hits;                 // scratch: rows matched by the current scan
+
     public PointSET()                               // construct an empty set of points
+    {
+        this(false);
+    }
+
+    /**
+     * Construct an empty set of points, scanning coordinate columns rather
+     * than the set itself if <tt>columnar</tt> is <tt>true</tt>
+     * @param columnar whether to keep the coordinates in columns
+     */
+    public PointSET(boolean columnar)
     {
         points = new SET<Point2D>();
+        this.columnar = columnar;
+        if (columnar) {
+            xs = new double[16];
+            ys = new double[16];
+            column = new Point2D[16];
+        }
     }
 
     public boolean isEmpty()                      // is the set empty?
@@ -29,7 +62,20 @@ public class PointSET {
     public void insert(Point2D p)              // add the point to the set (if it is not already in the set)
     {
         verify(p);
+        if (!columnar) {
+            points.add(p);
+            return;
+        }
+        if (points.contains(p)) return;
         points.add(p);
+        if (n == xs.length) {
+            xs = java.util.Arrays.copyOf(xs, 2 * n);
+            ys = java.util.Arrays.copyOf(ys, 2 * n);
+            column = java.util.Arrays.copyOf(column, 2 * n);
+        }
+        xs[n] = p.x();
+        ys[n] = p.y();
+        column[n++] = p;
     }
 
     public boolean contains(Point2D p)            // does the set contain point p?
@@ -46,10 +92,34 @@ public class PointSET {
         }
     }
 
+    public void draw(KdTreeRenderer renderer)  // buffer all points into the renderer
+    {
+        for (int i = 0; i < n; i++)
+            renderer.point(xs[i], ys[i]);
+        if (!columnar)
+            for (Point2D p : points)
+                renderer.point(p.x(), p.y());
+    }
+
     public Iterable<Point2D> range(RectHV rect)             // all points that are inside the rectangle
     {
         verify(rect);
         SET<Point2D> near = new SET<>();
+        if (columnar) {
+            double xmin = rect.xmin(), ymin = rect.ymin(), xmax = rect.xmax(), ymax = rect.ymax();
+            int[] rows = scratch();
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                //  every row is written, and the test only decides whether
+                //  the next row overwrites it, so the loop does not branch on it
+                double x = xs[i], y = ys[i];
+                rows[k] = i;
+                k += (x >= xmin & x <= xmax & y >= ymin & y <= ymax) ? 1 : 0;
+            }
+            for (int j = 0; j < k; j++)
+                near.add(column[rows[j]]);
+            return near;
+        }
         for (Point2D p : points) {
             if (rect.contains(p))
                 near.add(p);
@@ -60,6 +130,8 @@ public class PointSET {
     public Point2D nearest(Point2D p)             // a nearest neighbor in the set to point p; null if the set is empty
     {
         verify(p);
+        if (columnar)
+            return n == 0 ? null : column[nearestRow(p.x(), p.y())];
         double minDistanceSquared = Double.MAX_VALUE;
         Point2D champion = null;
         for (Point2D k : points) {
@@ -72,6 +144,75 @@ public class PointSET {
         return champion;
     }
 
+    //  row of the point nearest to (px, py): the minimum squared distance is
+    //  found with a reduction over four independent lanes, then located
+    private int nearestRow(double px, double py) {
+        double m0 = Double.POSITIVE_INFINITY, m1 = m0, m2 = m0, m3 = m0;
+        int i = 0;
+        for (; i + 3 < n; i += 4) {
+            double dx0 = xs[i]     - px, dy0 = ys[i]     - py;
+            double dx1 = xs[i + 1] - px, dy1 = ys[i + 1] - py;
+            double dx2 = xs[i + 2] - px, dy2 = ys[i + 2] - py;
+            double dx3 = xs[i + 3] - px, dy3 = ys[i + 3] - py;
+            m0 = Math.min(m0, dx0 * dx0 + dy0 * dy0);
+            m1 = Math.min(m1, dx1 * dx1 + dy1 * dy1);
+            m2 = Math.min(m2, dx2 * dx2 + dy2 * dy2);
+            m3 = Math.min(m3, dx3 * dx3 + dy3 * dy3);
+        }
+        for (; i < n; i++) {
+            double dx = xs[i] - px, dy = ys[i] - py;
+            m0 = Math.min(m0, dx * dx + dy * dy);
+        }
+        double min = Math.min(Math.min(m0, m1), Math.min(m2, m3));
+
+        for (i = 0; i < n; i++) {
+            double dx = xs[i] - px, dy = ys[i] - py;
+            if (dx * dx + dy * dy == min)
+                return i;
+        }
+        return 0;   // unreachable unless a coordinate is NaN
+    }
+
+    /**
+     * Returns all points within distance <tt>radius</tt> of point p.
+     * In columnar mode this is a scan of the coordinate columns.
+     * @param p the query point
+     * @param radius the radius of the disk
+     * @return all points at distance at most <tt>radius</tt> from <tt>p</tt>
+     * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+     */
+    public Iterable<Point2D> within(Point2D p, double radius)
+    {
+        verify(p);
+        Queue<Point2D> neighbors = new Queue<>();
+        double r2 = radius * radius;
+        if (columnar) {
+            double px = p.x(), py = p.y();
+            int[] rows = scratch();
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                double dx = xs[i] - px, dy = ys[i] - py;
+                rows[k] = i;
+                k += dx * dx + dy * dy <= r2 ? 1 : 0;
+            }
+            for (int j = 0; j < k; j++)
+                neighbors.enqueue(column[rows[j]]);
+            return neighbors;
+        }
+        for (Point2D k : points) {
+            if (k.distanceSquaredTo(p) <= r2)
+                neighbors.enqueue(k);
+        }
+        return neighbors;
+    }
+
+    //  a buffer with room for every row
+    private int[] scratch() {
+        if (hits == null || hits.length < n)
+            hits = new int[xs.length];
+        return hits;
+    }
+
     public static void main(String[] args) { }               // unit testing of the methods (optional)
 
 }
\ No newline at end of file
@@ -0,0 +1,71 @@
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+
+/**
+ *  Times nearest and range queries on PointSET, columnar PointSET and
+ *  KdTree for doubling set sizes, to locate the size at which the tree
+ *  overtakes a brute-force scan.
+ *
+ *  Usage: java PointSETBenchmark [max size] [queries per size]
+ */
+public class PointSETBenchmark {
+
+    public static void main(String[] args) {
+        int max = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 16;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        StdRandom.setSeed(0);
+
+        Point2D[] probes = new Point2D[queries];
+        RectHV[] rects = new RectHV[queries];
+        for (int i = 0; i < queries; i++) {
+            double x = StdRandom.uniform(), y = StdRandom.uniform();
+            probes[i] = new Point2D(x, y);
+            rects[i] = new RectHV(x, y, Math.min(1, x + 0.05), Math.min(1, y + 0.05));
+        }
+
+        StdOut.printf("%8s %12s %12s %12s %12s %12s %12s%n", "n",
+                "set nn", "column nn", "kdtree nn", "set range", "column range", "kdtree range");
+        for (int n = 16; n <= max; n *= 2) {
+            SpatialIndex[] indexes = { new PointSET(), new PointSET(true), new KdTree() };
+            for (int i = 0; i < n; i++) {
+                Point2D p = new Point2D(StdRandom.uniform(), StdRandom.uniform());
+                for (SpatialIndex index : indexes)
+                    index.insert(p);
+            }
+
+            //  scale the number of queries down so each size takes similar time
+            int q = (int) Math.max(100, Math.min(queries, queries * 256L / n));
+            double[] nn = new double[indexes.length], range = new double[indexes.length];
+            for (int round = 0; round < 2; round++) {      // the first round warms up the JIT
+                for (int j = 0; j < indexes.length; j++) {
+                    nn[j] = timeNearest(indexes[j], probes, q);
+                    range[j] = timeRange(indexes[j], rects, q);
+                }
+            }
+            StdOut.printf("%8d %12.3f %12.3f %12.3f %12.3f %12.3f %12.3f%n", n,
+                    nn[0], nn[1], nn[2], range[0], range[1], range[2]);
+        }
+        StdOut.println("(microseconds per query)");
+    }
+
+    private static double timeNearest(SpatialIndex index, Point2D[] probes, int q) {
+        long start = System.nanoTime();
+        double sum = 0;
+        for (int i = 0; i < q; i++)
+            sum += index.nearest(probes[i]).x();
+        if (sum < 0) StdOut.println(sum);
+        return (System.nanoTime() - start) / 1e3 / q;
+    }
+
+    private static double timeRange(SpatialIndex index, RectHV[] rects, int q) {
+        long start = System.nanoTime();
+        int count = 0;
+        for (int i = 0; i < q; i++)
+            for (Point2D p : index.range(rects[i]))
+                count++;
+        if (count < 0) StdOut.println(count);
+        return (System.nanoTime() - start) / 1e3 / q;
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ *  A reusable buffer for the hits of a paged range search, as filled by
+ *  {@link StaticKdTreeST#range}. Each hit is
+ *  a slot of the symbol table and the coordinates of its point, kept in
+ *  growable primitive arrays that are reused after {@link #clear()}, so
+ *  paging through a region allocates nothing once the buffer is large
+ *  enough for a page.
+ */
+public class RangeBuffer {
+
+    private int[] slots;
+    private double[] xs, ys;
+    private int n;
+
+    /**
+     * Construct an empty buffer.
+     */
+    public RangeBuffer() {
+        this(16);
+    }
+
+    /**
+     * Construct an empty buffer with room for the given number of hits.
+     * @param capacity the initial number of hits the buffer can hold
+     * @throws IllegalArgumentException if <tt>capacity</tt> is negative
+     */
+    public RangeBuffer(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity must be non-negative");
+        slots = new int[Math.max(1, capacity)];
+        xs = new double[slots.length];
+        ys = new double[slots.length];
+    }
+
+    //  appends a hit, doubling the arrays when they are full
+    void add(int slot, double x, double y) {
+        if (n == slots.length) {
+            slots = java.util.Arrays.copyOf(slots, 2 * n);
+            xs = java.util.Arrays.copyOf(xs, 2 * n);
+            ys = java.util.Arrays.copyOf(ys, 2 * n);
+        }
+        slots[n] = slot;
+        xs[n] = x;
+        ys[n++] = y;
+    }
+
+    /**
+     * Removes all hits, keeping the arrays for reuse.
+     */
+    public void clear() {
+        n = 0;
+    }
+
+    /**
+     * Is this buffer empty?
+     * @return <tt>true</tt> if this buffer holds no hits and <tt>false</tt> otherwise
+     */
+    public boolean isEmpty() {
+        return n == 0;
+    }
+
+    /**
+     * Returns the number of hits in the buffer.
+     * @return the number of hits in the buffer
+     */
+    public int size() {
+        return n;
+    }
+
+    /**
+     * Returns the slot of hit number i.
+     * @param i the number of the hit
+     * @return the slot of hit number <tt>i</tt>
+     */
+    public int slot(int i) {
+        check(i);
+        return slots[i];
+    }
+
+    /**
+     * Returns the <em>x</em>-coordinate of hit number i.
+     * @param i the number of the hit
+     * @return the <em>x</em>-coordinate of hit number <tt>i</tt>
+     */
+    public double x(int i) {
+        check(i);
+        return xs[i];
+    }
+
+    /**
+     * Returns the <em>y</em>-coordinate of hit number i.
+     * @param i the number of the hit
+     * @return the <em>y</em>-coordinate of hit number <tt>i</tt>
+     */
+    public double y(int i) {
+        check(i);
+        return ys[i];
+    }
+
+    private void check(int i) {
+        if (i < 0 || i >= n)
+            throw new IndexOutOfBoundsException("hit " + i + " outside [0, " + n + ")");
+    }
+
+    /**
+     * Returns the array of slots. The array is shared, not copied, and only
+     * its first <tt>size()</tt> entries are hits; it is replaced when the
+     * buffer grows.
+     * @return the array of slots
+     */
+    public int[] slots() {
+        return slots;
+    }
+
+    /**
+     * Returns the array of <em>x</em>-coordinates, shared as {@link #slots()}.
+     * @return the array of <em>x</em>-coordinates
+     */
+    public double[] xs() {
+        return xs;
+    }
+
+    /**
+     * Returns the array of <em>y</em>-coordinates, shared as {@link #slots()}.
+     * @return the array of <em>y</em>-coordinates
+     */
+    public double[] ys() {
+        return ys;
+    }
+}
@@ -28,7 +28,7 @@ public class RangeSearchVisualizer {
 
         // initialize the data structures with N points from standard input
         PointSET brute = new PointSET();
-        KdTree kdtree = new KdTree();
+        SpatialIndex kdtree = new KdTree();
         while (!in.isEmpty()) {
             double x = in.readDouble();
             double y = in.readDouble();
@@ -37,15 +37,17 @@ public class RangeSearchVisualizer {
             brute.insert(p);
         }
 
+        // buffer the points once; each frame replays at most one point per pixel
+        KdTreeRenderer renderer = new KdTreeRenderer(512, 512);
+        brute.draw(renderer);
+
         double x0 = 0.0, y0 = 0.0;      // initial endpoint of rectangle
         double x1 = 0.0, y1 = 0.0;      // current location of mouse
         boolean isDragging = false;     // is the user dragging a rectangle
 
         // draw the points
         StdDraw.clear();
-        StdDraw.setPenColor(StdDraw.BLACK);
-        StdDraw.setPenRadius(.01);
-        brute.draw();
+        renderer.draw();
 
         while (true) {
             StdDraw.show(40);
@@ -75,9 +77,7 @@ public class RangeSearchVisualizer {
                                      Math.max(x0, x1), Math.max(y0, y1));
             // draw the points
             StdDraw.clear();
-            StdDraw.setPenColor(StdDraw.BLACK);
-            StdDraw.setPenRadius(.01);
-            brute.draw();
+            renderer.draw();
 
             // draw the rectangle
             StdDraw.setPenColor(StdDraw.BLACK);
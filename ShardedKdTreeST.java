@@ -0,0 +1,260 @@
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.SET;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ *  A symbol table from Point2D objects to values for concurrent writers.
+ *  The boundary rectangle is cut into a grid of cells, each holding an
+ *  independent {@link KdTreeST} guarded by its own lock, so <tt>put</tt> and
+ *  <tt>get</tt> touch a single shard and queries only visit the shards they
+ *  can reach. Points outside the boundary belong to the nearest border cell.
+ */
+public class ShardedKdTreeST<Value> {
+
+    private final int rows, cols;
+    private final double xmin, ymin, xmax, ymax;
+    private final KdTreeST<Value>[] shards;
+    private final StampedLock[] locks;
+
+
+    /**
+     * Construct an empty symbol table over the given rectangle
+     * [<em>xmin</em>, <em>xmax</em>] x [<em>ymin</em>, <em>ymax</em>],
+     * split into a grid of <em>rows</em> x <em>cols</em> shards
+     *
+     * @param  xmin the <em>x</em>-coordinate of the lower-left endpoint
+     * @param  ymin the <em>y</em>-coordinate of the lower-left endpoint
+     * @param  xmax the <em>x</em>-coordinate of the upper-right endpoint
+     * @param  ymax the <em>y</em>-coordinate of the upper-right endpoint
+     * @param  rows the number of shards along the <em>y</em>-axis
+     * @param  cols the number of shards along the <em>x</em>-axis
+     * @throws IllegalArgumentException if <em>rows</em> or <em>cols</em> is not positive
+     */
+    @SuppressWarnings("unchecked")
+    public ShardedKdTreeST(double xmin, double ymin, double xmax, double ymax, int rows, int cols) {
+        if (rows <= 0 || cols <= 0)
+            throw new IllegalArgumentException("the grid needs at least one shard");
+        this.xmin = xmin;
+        this.ymin = ymin;
+        this.xmax = xmax;
+        this.ymax = ymax;
+        this.rows = rows;
+        this.cols = cols;
+
+        shards = (KdTreeST<Value>[]) new KdTreeST<?>[rows * cols];
+        locks = new StampedLock[rows * cols];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                shards[r * cols + c] = new KdTreeST<>(cellX(c), cellY(r), cellX(c + 1), cellY(r + 1));
+                locks[r * cols + c] = new StampedLock();
+            }
+        }
+    }
+
+    //  left edge of grid column c
+    private double cellX(int c) {
+        return xmin + (xmax - xmin) * c / cols;
+    }
+
+    //  bottom edge of grid row r
+    private double cellY(int r) {
+        return ymin + (ymax - ymin) * r / rows;
+    }
+
+    //  grid column of x-coordinate x, clamped to the grid; the estimate by
+    //  division is corrected against cellX, so that the cell bounds used for
+    //  pruning always hold the points of their shard
+    private int col(double x) {
+        int c = (int) ((x - xmin) / (xmax - xmin) * cols);
+        c = Math.max(0, Math.min(cols - 1, c));
+        while (c > 0 && x < cellX(c)) c--;
+        while (c < cols - 1 && x >= cellX(c + 1)) c++;
+        return c;
+    }
+
+    //  grid row of y-coordinate y, clamped to the grid and corrected like col
+    private int row(double y) {
+        int r = (int) ((y - ymin) / (ymax - ymin) * rows);
+        r = Math.max(0, Math.min(rows - 1, r));
+        while (r > 0 && y < cellY(r)) r--;
+        while (r < rows - 1 && y >= cellY(r + 1)) r++;
+        return r;
+    }
+
+    //  index of the shard responsible for point p
+    private int shard(Point2D p) {
+        return row(p.y()) * cols + col(p.x());
+    }
+
+
+    /**
+     * Is this symbol table empty?
+     * @return <tt>true</tt> if this symbol table is empty and <tt>false</tt> otherwise
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+
+    /**
+     * Returns the number of point-value pairs in this symbol table. Pairs
+     * inserted concurrently with the call may or may not be counted.
+     * @return the number of point-value pairs in this symbol table
+     */
+    public int size() {
+        int N = 0;
+        for (int i = 0; i < shards.length; i++) {
+            long stamp = locks[i].readLock();
+            try {
+                N += shards[i].size();
+            } finally {
+                locks[i].unlockRead(stamp);
+            }
+        }
+        return N;
+    }
+
+
+    //  throws a NullPointerException if parameter is null
+    private void verify(Object o) {
+        if (o == null)
+            throw new java.lang.NullPointerException();
+    }
+
+
+    /**
+     * Inserts the specified point-value pair into the symbol table, overwriting the old
+     * value with the new value if the symbol table already contains the specified point.
+     * Only the shard responsible for the point is locked.
+     *
+     * @param p the point
+     * @param val the value
+     * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+     */
+    public void put(Point2D p, Value val) {
+        verify(p);
+        int i = shard(p);
+        long stamp = locks[i].writeLock();
+        try {
+            shards[i].put(p, val);
+        } finally {
+            locks[i].unlockWrite(stamp);
+        }
+    }
+
+
+    /**
+     * Returns the value associated with the given point.
+     * @param p the point
+     * @return the value associated with the given point if the point is in the symbol table
+     *     and <tt>null</tt> if the point is not in the symbol table
+     * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+     */
+    public Value get(Point2D p) {
+        verify(p);
+        int i = shard(p);
+        long stamp = locks[i].readLock();
+        try {
+            return shards[i].get(p);
+        } finally {
+            locks[i].unlockRead(stamp);
+        }
+    }
+
+
+    /**
+     * Does this symbol table contain the given point?
+     * @param p the point
+     * @return <tt>true</tt> if this symbol table contains <tt>p</tt> and
+     *     <tt>false</tt> otherwise
+     * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+     */
+    public boolean contains(Point2D p) {
+        verify(p);
+        int i = shard(p);
+        long stamp = locks[i].readLock();
+        try {
+            return shards[i].contains(p);
+        } finally {
+            locks[i].unlockRead(stamp);
+        }
+    }
+
+
+    /**
+     * Returns all points that are inside the rectangle, visiting only the
+     * shards whose cell intersects it.
+     * @return all keys that are inside the rectangle <tt>rect</tt> as
+     * an <tt>Iterable</tt>
+     * @throws NullPointerException if <tt>rect</tt> is <tt>null</tt>
+     */
+    public Iterable<Point2D> range(RectHV rect) {
+        verify(rect);
+        SET<Point2D> set = new SET<>();
+        for (int r = row(rect.ymin()); r <= row(rect.ymax()); r++) {
+            for (int c = col(rect.xmin()); c <= col(rect.xmax()); c++) {
+                int i = r * cols + c;
+                long stamp = locks[i].readLock();
+                try {
+                    for (Point2D p : shards[i].range(rect))
+                        set.add(p);
+                } finally {
+                    locks[i].unlockRead(stamp);
+                }
+            }
+        }
+        return set;
+    }
+
+
+    /**
+     * Returns a nearest neighbor in the symbol table to point p. The shard
+     * holding p is searched first; any other shard is skipped once its cell
+     * is farther away than the best point found so far.
+     * @return a nearest neighbor in the symbol table to point <tt>p</tt>;
+     *     <tt>null</tt> if the symbol table is empty
+     * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+     */
+    public Point2D nearest(Point2D p) {
+        verify(p);
+        int home = shard(p);
+        Point2D champion = nearest(home, p);
+        double minDistance = champion == null ? Double.POSITIVE_INFINITY : champion.distanceSquaredTo(p);
+
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                int i = r * cols + c;
+                if (i == home || cellDistanceSquared(r, c, p) > minDistance) continue;
+                Point2D candidate = nearest(i, p);
+                if (candidate != null && candidate.distanceSquaredTo(p) < minDistance) {
+                    champion = candidate;
+                    minDistance = candidate.distanceSquaredTo(p);
+                }
+            }
+        }
+        return champion;
+    }
+
+    //  nearest neighbor of p within shard i
+    private Point2D nearest(int i, Point2D p) {
+        long stamp = locks[i].readLock();
+        try {
+            return shards[i].nearest(p);
+        } finally {
+            locks[i].unlockRead(stamp);
+        }
+    }
+
+    //  squared distance from p to the cell of the shard at row r and column c;
+    //  border cells extend to infinity on their outer sides
+    private double cellDistanceSquared(int r, int c, Point2D p) {
+        double inf = Double.POSITIVE_INFINITY;
+        return StaticKdTreeST.distanceSquared(p.x(), p.y(),
+                c == 0        ? -inf : cellX(c),
+                r == 0        ? -inf : cellY(r),
+                c == cols - 1 ?  inf : cellX(c + 1),
+                r == rows - 1 ?  inf : cellY(r + 1));
+    }
+}
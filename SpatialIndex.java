@@ -0,0 +1,22 @@
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+
+/**
+ *  The operations shared by the point set data types, so that clients such
+ *  as the visualizers can switch between a brute-force set, a 2d-tree and a
+ *  uniform grid by changing a single constructor call.
+ */
+public interface SpatialIndex {
+
+    boolean isEmpty();                          // is the set empty?
+
+    int size();                                 // number of points in the set
+
+    void insert(Point2D p);                     // add the point to the set (if it is not already in the set)
+
+    boolean contains(Point2D p);                // does the set contain point p?
+
+    Iterable<Point2D> range(RectHV rect);       // all points that are inside the rectangle
+
+    Point2D nearest(Point2D p);                 // a nearest neighbor in the set to point p; null if the set is empty
+}
@@ -0,0 +1,592 @@
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.SET;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ *  A read-only symbol table from Point2D objects to values, obtained by
+ *  freezing a {@link KdTreeST}. The nodes live in parallel arrays laid out
+ *  in van Emde Boas order and the child links are array slots, so a
+ *  root-to-leaf path touches O(log_B n) cache lines instead of one heap
+ *  object per level.
+ */
+public class StaticKdTreeST<Value> {
+
+    private static final int NIL = -1;
+
+    private final int N;
+    private final Point2D[] points;     // the point of each slot
+    private final double[] xs, ys;      // coordinates copied out of the points
+    private final Value[] vals;
+    private final int[] lb, rt;         // left/bottom and right/top child slots
+    private final int[] parent;         // parent slot; NIL for the root
+    private final boolean[] vertical;   // orientation of each slot
+
+
+    // slots are filled in by KdTreeST.freeze(); slot 0 is the root
+    @SuppressWarnings("unchecked")
+    StaticKdTreeST(int N) {
+        this.N = N;
+        points = new Point2D[N];
+        xs = new double[N];
+        ys = new double[N];
+        vals = (Value[]) new Object[N];
+        lb = new int[N];
+        rt = new int[N];
+        parent = new int[N];
+        Arrays.fill(parent, NIL);
+        vertical = new boolean[N];
+    }
+
+    void set(int slot, Point2D p, Value val, boolean isVertical, int left, int right) {
+        points[slot] = p;
+        xs[slot] = p.x();
+        ys[slot] = p.y();
+        vals[slot] = val;
+        vertical[slot] = isVertical;
+        lb[slot] = left;
+        rt[slot] = right;
+        if (left != NIL)  parent[left] = slot;
+        if (right != NIL) parent[right] = slot;
+    }
+
+
+    /**
+     * Is this symbol table empty?
+     * @return <tt>true</tt> if this symbol table is empty and <tt>false</tt> otherwise
+     */
+    public boolean isEmpty() {
+        return N == 0;
+    }
+
+
+    /**
+     * Returns the number of point-value pairs in this symbol table.
+     * @return the number of point-value pairs in this symbol table
+     */
+    public int size() {
+        return N;
+    }
+
+
+    //  throws a NullPointerException if parameter is null
+    private void verify(Object o) {
+        if (o == null)
+            throw new java.lang.NullPointerException();
+    }
+
+    //  returns a positive integer if the slot splits to the right or top of
+    //  (x, y), and vice versa (0 if equal)
+    private int compare(int slot, double x, double y) {
+        double cmp = vertical[slot] ? xs[slot] - x : ys[slot] - y;
+        if      (cmp > 0) return  1;
+        else if (cmp < 0) return -1;
+        else              return  0;
+    }
+
+
+    /***************************************************************************
+     *  Search.
+     ***************************************************************************/
+
+    /**
+     * Returns the value associated with the given point.
+     * @param p the point
+     * @return the value associated with the given point if the point is in the symbol table
+     *     and <tt>null</tt> if the point is not in the symbol table
+     * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+     */
+    public Value get(Point2D p) {
+        verify(p);
+        int slot = find(p);
+        return slot == NIL ? null : vals[slot];
+    }
+
+
+    /**
+     * Does this symbol table contain the given point?
+     * @param p the point
+     * @return <tt>true</tt> if this symbol table contains <tt>p</tt> and
+     *     <tt>false</tt> otherwise
+     * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+     */
+    public boolean contains(Point2D p) {
+        verify(p);
+        return find(p) != NIL;
+    }
+
+    //  slot holding the given point; NIL if no such key
+    private int find(Point2D p) {
+        int x = N == 0 ? NIL : 0;
+        while (x != NIL) {
+            if (xs[x] == p.x() && ys[x] == p.y())
+                return x;
+            x = compare(x, p.x(), p.y()) > 0 ? lb[x] : rt[x];
+        }
+        return NIL;
+    }
+
+
+    /***************************************************************************
+     *  Range search
+     ***************************************************************************/
+
+    /**
+     * Returns all points that are inside the rectangle.
+     * @return all keys that are inside the rectangle <tt>rect</tt> as
+     * an <tt>Iterable</tt>
+     * @throws NullPointerException if <tt>rect</tt> is <tt>null</tt>
+     */
+    public Iterable<Point2D> range(RectHV rect) {
+        verify(rect);
+        SET<Point2D> set = new SET<>();
+        if (N > 0) range(0, rect, set);
+        return set;
+    }
+
+    //  add the points in the division of the subtree rooted at slot x
+    //  to a set recursively
+    private void range(int x, RectHV rect, SET<Point2D> set) {
+        double split = vertical[x] ? xs[x] : ys[x];
+        double min   = vertical[x] ? rect.xmin() : rect.ymin();
+        double max   = vertical[x] ? rect.xmax() : rect.ymax();
+
+        if (lb[x] != NIL && split >= min) range(lb[x], rect, set);
+        if (rt[x] != NIL && split <= max) range(rt[x], rect, set);
+        if (inside(x, rect))              set.add(points[x]);
+    }
+
+    //  whether the point in slot x is inside the rectangle, read from the
+    //  coordinate arrays so that only a hit touches its Point2D
+    private boolean inside(int x, RectHV rect) {
+        return xs[x] >= rect.xmin() && xs[x] <= rect.xmax()
+            && ys[x] >= rect.ymin() && ys[x] <= rect.ymax();
+    }
+
+    /**
+     * Appends the slots and coordinates of at most <tt>limit</tt> points
+     * inside the rectangle to the buffer, starting a new search. The search
+     * walks the tree in preorder without a stack, so it can stop at the
+     * limit and be resumed later from the returned cursor.
+     * @param rect the rectangle
+     * @param buffer receives the hits after those it already holds
+     * @param limit the largest number of hits to append
+     * @return the cursor to pass to resume the search; -1 if it is complete
+     * @throws NullPointerException if <tt>rect</tt> or <tt>buffer</tt> is <tt>null</tt>
+     * @throws IllegalArgumentException if <tt>limit</tt> is negative
+     */
+    public int range(RectHV rect, RangeBuffer buffer, int limit) {
+        return range(rect, buffer, limit, N == 0 ? NIL : 0);
+    }
+
+    /**
+     * Resumes a paged search of the same rectangle, appending the slots and
+     * coordinates of at most <tt>limit</tt> more points inside it.
+     * @param rect the rectangle of the search being resumed
+     * @param buffer receives the hits after those it already holds
+     * @param limit the largest number of hits to append
+     * @param cursor the cursor returned by the previous page
+     * @return the cursor to pass to resume the search; -1 if it is complete
+     * @throws NullPointerException if <tt>rect</tt> or <tt>buffer</tt> is <tt>null</tt>
+     * @throws IllegalArgumentException if <tt>limit</tt> is negative
+     */
+    public int range(RectHV rect, RangeBuffer buffer, int limit, int cursor) {
+        verify(rect);
+        verify(buffer);
+        if (limit < 0)
+            throw new IllegalArgumentException("limit must be non-negative");
+
+        int x = cursor;
+        for (int hits = 0; x != NIL && hits < limit; x = next(x, rect)) {
+            if (inside(x, rect)) {
+                buffer.add(x, xs[x], ys[x]);
+                hits++;
+            }
+        }
+        return x;
+    }
+
+    //  the slot after x in the preorder of the subtrees that the recursive
+    //  range search enters, found by climbing the parent links; NIL after the last
+    private int next(int x, RectHV rect) {
+        if (lb[x] != NIL && entersLb(x, rect)) return lb[x];
+        if (rt[x] != NIL && entersRt(x, rect)) return rt[x];
+        for (int p = parent[x]; p != NIL; x = p, p = parent[p]) {
+            if (x == lb[p] && rt[p] != NIL && entersRt(p, rect))
+                return rt[p];
+        }
+        return NIL;
+    }
+
+    private boolean entersLb(int x, RectHV rect) {
+        return (vertical[x] ? xs[x] : ys[x]) >= (vertical[x] ? rect.xmin() : rect.ymin());
+    }
+
+    private boolean entersRt(int x, RectHV rect) {
+        return (vertical[x] ? xs[x] : ys[x]) <= (vertical[x] ? rect.xmax() : rect.ymax());
+    }
+
+
+    /***************************************************************************
+     *  Nearest neighbor search
+     ***************************************************************************/
+
+    /**
+     * Returns a nearest neighbor in the symbol table to point p
+     * @return a nearest neighbor in the symbol table to point <tt>p</tt>;
+     *     <tt>null</tt> if the symbol table is empty
+     * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+     */
+    public Point2D nearest(Point2D p) {
+        verify(p);
+        if (N == 0) return null;
+        //  the champion distance is kept in a local cell rather than a field
+        //  so that concurrent readers of a frozen tree do not interfere
+        double[] minDistance = { Double.POSITIVE_INFINITY };
+        double inf = Double.POSITIVE_INFINITY;
+        int champion = nearest(0, p.x(), p.y(), NIL, minDistance, -inf, -inf, inf, inf);
+        return points[champion];
+    }
+
+    //  returns the nearest slot in the division [xmin, xmax] x [ymin, ymax]
+    //  of the subtree rooted at x which is closer than the champion to (px, py)
+    private int nearest(int x, double px, double py, int champion, double[] minDistance,
+                        double xmin, double ymin, double xmax, double ymax) {
+        if (x == NIL)
+            return champion;
+
+        double dx = xs[x] - px, dy = ys[x] - py;
+        double distance = dx * dx + dy * dy;
+        if (distance < minDistance[0]) {
+            minDistance[0] = distance;
+            champion = x;
+        }
+        if (minDistance[0] == 0)
+            return champion;
+
+        //  children divisions are derived from the parent's on the fly
+        //  instead of allocating a RectHV per visited node
+        if (vertical[x]) {
+            double split = xs[x];
+            if (split > px) {
+                champion = nearest(lb[x], px, py, champion, minDistance, xmin, ymin, split, ymax);
+                if (distanceSquared(px, py, split, ymin, xmax, ymax) <= minDistance[0])
+                    champion = nearest(rt[x], px, py, champion, minDistance, split, ymin, xmax, ymax);
+            } else {
+                champion = nearest(rt[x], px, py, champion, minDistance, split, ymin, xmax, ymax);
+                if (distanceSquared(px, py, xmin, ymin, split, ymax) <= minDistance[0])
+                    champion = nearest(lb[x], px, py, champion, minDistance, xmin, ymin, split, ymax);
+            }
+        } else {
+            double split = ys[x];
+            if (split > py) {
+                champion = nearest(lb[x], px, py, champion, minDistance, xmin, ymin, xmax, split);
+                if (distanceSquared(px, py, xmin, split, xmax, ymax) <= minDistance[0])
+                    champion = nearest(rt[x], px, py, champion, minDistance, xmin, split, xmax, ymax);
+            } else {
+                champion = nearest(rt[x], px, py, champion, minDistance, xmin, split, xmax, ymax);
+                if (distanceSquared(px, py, xmin, ymin, xmax, split) <= minDistance[0])
+                    champion = nearest(lb[x], px, py, champion, minDistance, xmin, ymin, xmax, split);
+            }
+        }
+
+        return champion;
+    }
+
+    /***************************************************************************
+     *  All k nearest neighbors
+     ***************************************************************************/
+
+    private static final int BATCH = 16;        // query points sharing one descent
+    private static final int PARALLEL = 4096;   // fewer queries are answered sequentially
+
+    /**
+     * Returns the <em>k</em> nearest other points of every point in the
+     * symbol table. Points are queried in batches of spatially close points
+     * that descend the tree together and share one pruning bound, instead
+     * of descending from the root once per point.
+     * @param k the number of neighbors per point
+     * @return the <em>k</em>-nearest-neighbor graph, indexed by slot
+     * @throws IllegalArgumentException if <tt>k</tt> is negative
+     */
+    public KNearestGraph<Value> allKNearest(int k) {
+        return new KNearestGraph<>(points, vals, k, kNearest(xs, ys, k, true));
+    }
+
+    /**
+     * Returns the nearest point of this symbol table to every point of another
+     * frozen symbol table, computed with the same batched descent as
+     * {@link #allKNearest(int)}.
+     * @param that the symbol table holding the query points
+     * @return the slot in this symbol table nearest to each slot of <tt>that</tt>;
+     *     -1 for every slot if this symbol table is empty
+     * @throws NullPointerException if <tt>that</tt> is <tt>null</tt>
+     */
+    public int[] nearestTo(StaticKdTreeST<?> that) {
+        verify(that);
+        return kNearest(that.xs, that.ys, 1, that == this);
+    }
+
+    /**
+     * Returns the point stored in the given slot, such as a hit of a paged
+     * range search.
+     * @param slot the slot
+     * @return the point stored in slot <tt>slot</tt>
+     */
+    public Point2D point(int slot) {
+        return points[slot];
+    }
+
+    /**
+     * Returns the value stored in the given slot.
+     * @param slot the slot
+     * @return the value stored in slot <tt>slot</tt>
+     */
+    public Value value(int slot) {
+        return vals[slot];
+    }
+
+    //  the k nearest slots to every query point (qx[i], qy[i]), k entries per
+    //  query in increasing distance, padded with NIL; with self set the queries
+    //  are the slots of this tree and a slot is never its own neighbor
+    private int[] kNearest(double[] qx, double[] qy, int k, boolean self) {
+        if (k < 0)
+            throw new IllegalArgumentException("k must be non-negative");
+
+        int n = qx.length;
+        KNearestSearch search = new KNearestSearch(qx, qy, k, self);
+        if (k > 0 && n > 0 && N > 0) {
+            if (n > PARALLEL) ForkJoinPool.commonPool().invoke(search.new Split(0, n));
+            else              search.split(0, n);
+        }
+        return search.neighbors;
+    }
+
+    //  shared state of one batched k-nearest-neighbor computation
+    private final class KNearestSearch {
+        private final double[] qx, qy;      // query coordinates
+        private final int k;
+        private final int[] queries;        // query numbers, reordered into batches
+        private final int[] neighbors;      // k nearest slots per query
+        private final double[] distances;   // their squared distances
+        private final int[] owner;          // for self queries, first position of the batch holding each slot
+
+        KNearestSearch(double[] qx, double[] qy, int k, boolean self) {
+            int n = qx.length;
+            this.qx = qx;
+            this.qy = qy;
+            this.k = k;
+            queries = new int[n];
+            for (int i = 0; i < n; i++)
+                queries[i] = i;
+            neighbors = new int[n * k];
+            distances = new double[n * k];
+            Arrays.fill(neighbors, NIL);
+            Arrays.fill(distances, Double.POSITIVE_INFINITY);
+            owner = self ? new int[n] : null;
+            if (self) Arrays.fill(owner, NIL);
+        }
+
+        //  splits queries[lo, hi) at the median of its longer side until at most
+        //  BATCH queries remain, then answers that batch with a single descent
+        void split(int lo, int hi) {
+            if (hi - lo > BATCH) {
+                int mid = median(lo, hi);
+                split(lo, mid);
+                split(mid, hi);
+            } else {
+                answer(lo, hi);
+            }
+        }
+
+        //  the same recursion with the halves of large ranges run as fork-join
+        //  tasks; the batches are disjoint, so they never write the same row
+        final class Split extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+            private final int lo, hi;
+
+            Split(int lo, int hi) {
+                this.lo = lo;
+                this.hi = hi;
+            }
+
+            protected void compute() {
+                if (hi - lo <= PARALLEL) {
+                    split(lo, hi);
+                    return;
+                }
+                int mid = median(lo, hi);
+                invokeAll(new Split(lo, mid), new Split(mid, hi));
+            }
+        }
+
+        //  moves the median of queries[lo, hi) along its longer side to the middle
+        private int median(int lo, int hi) {
+            double xmin = Double.POSITIVE_INFINITY, xmax = Double.NEGATIVE_INFINITY;
+            double ymin = Double.POSITIVE_INFINITY, ymax = Double.NEGATIVE_INFINITY;
+            for (int i = lo; i < hi; i++) {
+                xmin = Math.min(xmin, qx[queries[i]]);
+                xmax = Math.max(xmax, qx[queries[i]]);
+                ymin = Math.min(ymin, qy[queries[i]]);
+                ymax = Math.max(ymax, qy[queries[i]]);
+            }
+            int mid = (lo + hi) >>> 1;
+            select(queries, xmax - xmin >= ymax - ymin ? qx : qy, lo, hi - 1, mid);
+            return mid;
+        }
+
+        private void answer(int lo, int hi) {
+            Batch batch = new Batch(this, lo, hi);
+            //  the members of a self batch are close to each other, so offering
+            //  them first gives a finite pruning bound before the descent starts
+            if (owner != null) {
+                for (int i = lo; i < hi; i++) {
+                    owner[queries[i]] = lo;
+                    batch.offer(queries[i]);
+                }
+            }
+            double inf = Double.POSITIVE_INFINITY;
+            allKNearest(0, batch, -inf, -inf, inf, inf);
+        }
+    }
+
+    //  rearranges a[lo..hi] so that a[m] holds the slot with the m-th smallest
+    //  key, with no larger key before it and no smaller one after it
+    static void select(int[] a, double[] key, int lo, int hi, int m) {
+        while (hi > lo) {
+            double pivot = key[a[(lo + hi) >>> 1]];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (key[a[i]] < pivot) i++;
+                while (key[a[j]] > pivot) j--;
+                if (i <= j) {
+                    int t = a[i];
+                    a[i++] = a[j];
+                    a[j--] = t;
+                }
+            }
+            if      (m <= j) hi = j;
+            else if (m >= i) lo = i;
+            else             return;
+        }
+    }
+
+    //  a batch of queries with their bounding box and running neighbor lists
+    private final class Batch {
+        private final KNearestSearch search;
+        private final int lo, hi, k;
+        private final double xmin, ymin, xmax, ymax;
+        private double bound = Double.POSITIVE_INFINITY;   // largest k-th distance in the batch
+
+        Batch(KNearestSearch search, int lo, int hi) {
+            this.search = search;
+            this.lo = lo;
+            this.hi = hi;
+            this.k = search.k;
+            double xmin = Double.POSITIVE_INFINITY, xmax = Double.NEGATIVE_INFINITY;
+            double ymin = Double.POSITIVE_INFINITY, ymax = Double.NEGATIVE_INFINITY;
+            for (int i = lo; i < hi; i++) {
+                int q = search.queries[i];
+                xmin = Math.min(xmin, search.qx[q]);
+                ymin = Math.min(ymin, search.qy[q]);
+                xmax = Math.max(xmax, search.qx[q]);
+                ymax = Math.max(ymax, search.qy[q]);
+            }
+            this.xmin = xmin;
+            this.ymin = ymin;
+            this.xmax = xmax;
+            this.ymax = ymax;
+        }
+
+        //  is slot x one of the queries of this (self) batch?
+        boolean holds(int x) {
+            return search.owner != null && search.owner[x] == lo;
+        }
+
+        //  offers slot x as a neighbor to every query of the batch
+        void offer(int x) {
+            int[] queries = search.queries, neighbors = search.neighbors;
+            double[] distances = search.distances;
+            boolean self = search.owner != null;
+            boolean changed = false;
+            for (int i = lo; i < hi; i++) {
+                int q = queries[i];
+                if (self && q == x) continue;
+                double dx = xs[x] - search.qx[q], dy = ys[x] - search.qy[q];
+                double distance = dx * dx + dy * dy;
+                int row = q * k;
+                if (distance >= distances[row + k - 1]) continue;
+
+                //  insertion into the sorted row, dropping the k-th neighbor
+                int j = k - 1;
+                while (j > 0 && distances[row + j - 1] > distance) {
+                    distances[row + j] = distances[row + j - 1];
+                    neighbors[row + j] = neighbors[row + j - 1];
+                    j--;
+                }
+                distances[row + j] = distance;
+                neighbors[row + j] = x;
+                changed = true;
+            }
+
+            if (changed) {
+                bound = 0.0;
+                for (int i = lo; i < hi; i++)
+                    bound = Math.max(bound, distances[queries[i] * k + k - 1]);
+            }
+        }
+
+        //  squared distance between the batch bounding box and a division
+        double distanceSquared(double xmin, double ymin, double xmax, double ymax) {
+            double dx = Math.max(0.0, Math.max(xmin - this.xmax, this.xmin - xmax));
+            double dy = Math.max(0.0, Math.max(ymin - this.ymax, this.ymin - ymax));
+            return dx * dx + dy * dy;
+        }
+    }
+
+    //  offers every point in the division [xmin, xmax] x [ymin, ymax] of the
+    //  subtree rooted at x that could still improve some query in the batch
+    private void allKNearest(int x, Batch batch, double xmin, double ymin, double xmax, double ymax) {
+        if (x == NIL || batch.distanceSquared(xmin, ymin, xmax, ymax) > batch.bound)
+            return;
+
+        if (!batch.holds(x))
+            batch.offer(x);
+
+        //  descend first into the side of the split holding the batch centre
+        if (vertical[x]) {
+            double split = xs[x];
+            if (split > (batch.xmin + batch.xmax) / 2) {
+                allKNearest(lb[x], batch, xmin, ymin, split, ymax);
+                allKNearest(rt[x], batch, split, ymin, xmax, ymax);
+            } else {
+                allKNearest(rt[x], batch, split, ymin, xmax, ymax);
+                allKNearest(lb[x], batch, xmin, ymin, split, ymax);
+            }
+        } else {
+            double split = ys[x];
+            if (split > (batch.ymin + batch.ymax) / 2) {
+                allKNearest(lb[x], batch, xmin, ymin, xmax, split);
+                allKNearest(rt[x], batch, xmin, split, xmax, ymax);
+            } else {
+                allKNearest(rt[x], batch, xmin, split, xmax, ymax);
+                allKNearest(lb[x], batch, xmin, ymin, xmax, split);
+            }
+        }
+    }
+
+
+    //  squared distance from (px, py) to the rectangle [xmin, xmax] x [ymin, ymax]
+    static double distanceSquared(double px, double py,
+                                  double xmin, double ymin, double xmax, double ymax) {
+        double dx = 0.0, dy = 0.0;
+        if      (px < xmin) dx = px - xmin;
+        else if (px > xmax) dx = px - xmax;
+        if      (py < ymin) dy = py - ymin;
+        else if (py > ymax) dy = py - ymax;
+        return dx * dx + dy * dy;
+    }
+}
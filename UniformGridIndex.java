@@ -0,0 +1,194 @@
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.Queue;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.SET;
+
+/**
+ *  A set of points bucketed into a uniform grid of cells over a fixed
+ *  rectangle. With the cell side close to the query radius, a fixed-radius
+ *  neighbor query only scans the few cells around the query point, which
+ *  suits dense sets of moving points, such as boids, that are cleared and
+ *  reinserted every frame. Points outside the rectangle belong to the
+ *  nearest border cell.
+ */
+public class UniformGridIndex implements SpatialIndex {
+
+    private final double xmin, ymin, xmax, ymax;
+    private final int rows, cols;
+    private final double cellWidth, cellHeight;
+    private final Point2D[][] cells;    // points of each cell, row by row
+    private final int[] counts;         // number of points in each cell
+    private int N;
+
+
+    /**
+     * Construct an empty set of points over the rectangle
+     * [<em>xmin</em>, <em>xmax</em>] x [<em>ymin</em>, <em>ymax</em>]
+     * with square-ish cells of about the given side
+     *
+     * @param  xmin the <em>x</em>-coordinate of the lower-left endpoint
+     * @param  ymin the <em>y</em>-coordinate of the lower-left endpoint
+     * @param  xmax the <em>x</em>-coordinate of the upper-right endpoint
+     * @param  ymax the <em>y</em>-coordinate of the upper-right endpoint
+     * @param  cellSize the side of a cell, typically the neighbor query radius
+     * @throws IllegalArgumentException if <em>cellSize</em> is not positive
+     */
+    public UniformGridIndex(double xmin, double ymin, double xmax, double ymax, double cellSize) {
+        if (!(cellSize > 0))
+            throw new IllegalArgumentException("cell size must be positive");
+        this.xmin = xmin;
+        this.ymin = ymin;
+        this.xmax = xmax;
+        this.ymax = ymax;
+        cols = Math.max(1, (int) Math.ceil((xmax - xmin) / cellSize));
+        rows = Math.max(1, (int) Math.ceil((ymax - ymin) / cellSize));
+        cellWidth = (xmax - xmin) / cols;
+        cellHeight = (ymax - ymin) / rows;
+        cells = new Point2D[rows * cols][];
+        counts = new int[rows * cols];
+    }
+
+
+    public boolean isEmpty()                    // is the set empty?
+    {
+        return N == 0;
+    }
+
+    public int size()                           // number of points in the set
+    {
+        return N;
+    }
+
+    private void verify(Object o) {
+        if (o == null)
+            throw new java.lang.NullPointerException();
+    }
+
+    //  grid column of x-coordinate x, clamped to the grid
+    private int col(double x) {
+        int c = (int) ((x - xmin) / cellWidth);
+        return Math.max(0, Math.min(cols - 1, c));
+    }
+
+    //  grid row of y-coordinate y, clamped to the grid
+    private int row(double y) {
+        int r = (int) ((y - ymin) / cellHeight);
+        return Math.max(0, Math.min(rows - 1, r));
+    }
+
+
+    public void insert(Point2D p)               // add the point to the set (if it is not already in the set)
+    {
+        verify(p);
+        if (contains(p)) return;
+
+        int cell = row(p.y()) * cols + col(p.x());
+        if (cells[cell] == null)
+            cells[cell] = new Point2D[4];
+        else if (counts[cell] == cells[cell].length)
+            cells[cell] = java.util.Arrays.copyOf(cells[cell], 2 * counts[cell]);
+        cells[cell][counts[cell]++] = p;
+        N++;
+    }
+
+    /**
+     * Removes all points, keeping the cell arrays for the next round of
+     * insertions.
+     */
+    public void clear()
+    {
+        java.util.Arrays.fill(counts, 0);
+        N = 0;
+    }
+
+    public boolean contains(Point2D p)          // does the set contain point p?
+    {
+        verify(p);
+        int cell = row(p.y()) * cols + col(p.x());
+        for (int i = 0; i < counts[cell]; i++) {
+            if (cells[cell][i].equals(p))
+                return true;
+        }
+        return false;
+    }
+
+
+    public Iterable<Point2D> range(RectHV rect)     // all points that are inside the rectangle
+    {
+        verify(rect);
+        SET<Point2D> set = new SET<>();
+        for (int r = row(rect.ymin()); r <= row(rect.ymax()); r++) {
+            for (int c = col(rect.xmin()); c <= col(rect.xmax()); c++) {
+                int cell = r * cols + c;
+                for (int i = 0; i < counts[cell]; i++) {
+                    if (rect.contains(cells[cell][i]))
+                        set.add(cells[cell][i]);
+                }
+            }
+        }
+        return set;
+    }
+
+
+    /**
+     * Returns all points within distance <tt>radius</tt> of point p,
+     * scanning only the cells that overlap the disk around p.
+     * @param p the query point
+     * @param radius the radius of the disk
+     * @return all points at distance at most <tt>radius</tt> from <tt>p</tt>
+     * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+     */
+    public Iterable<Point2D> within(Point2D p, double radius)
+    {
+        verify(p);
+        Queue<Point2D> neighbors = new Queue<>();
+        double r2 = radius * radius;
+        for (int r = row(p.y() - radius); r <= row(p.y() + radius); r++) {
+            for (int c = col(p.x() - radius); c <= col(p.x() + radius); c++) {
+                int cell = r * cols + c;
+                for (int i = 0; i < counts[cell]; i++) {
+                    if (cells[cell][i].distanceSquaredTo(p) <= r2)
+                        neighbors.enqueue(cells[cell][i]);
+                }
+            }
+        }
+        return neighbors;
+    }
+
+
+    public Point2D nearest(Point2D p)           // a nearest neighbor in the set to point p; null if the set is empty
+    {
+        verify(p);
+        int r0 = row(p.y()), c0 = col(p.x());
+        double minDistance = Double.POSITIVE_INFINITY;
+        Point2D champion = null;
+
+        //  scan square rings of cells around the cell of p; every cell of
+        //  ring k lies at least (k - 1) cells away along one of the axes
+        int rings = Math.max(rows, cols);
+        double step = Math.min(cellWidth, cellHeight);
+        for (int k = 0; k <= rings; k++) {
+            double gap = Math.max(0, k - 1) * step;
+            if (gap * gap > minDistance) break;
+
+            for (int r = r0 - k; r <= r0 + k; r++) {
+                if (r < 0 || r >= rows) continue;
+                boolean edge = r == r0 - k || r == r0 + k;
+                for (int c = c0 - k; c <= c0 + k; c += edge ? 1 : 2 * k) {
+                    if (c >= 0 && c < cols) {
+                        int cell = r * cols + c;
+                        for (int i = 0; i < counts[cell]; i++) {
+                            double distance = cells[cell][i].distanceSquaredTo(p);
+                            if (distance < minDistance) {
+                                minDistance = distance;
+                                champion = cells[cell][i];
+                            }
+                        }
+                    }
+                    if (k == 0) break;
+                }
+            }
+        }
+        return champion;
+    }
+}
@@ -0,0 +1,237 @@
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.SET;
+
+import java.util.Arrays;
+
+/**
+ *  A symbol table from Point2D objects to values that only remembers the
+ *  pairs put during a sliding window of time. Time is cut into buckets of
+ *  equal length; pairs collect in the open bucket, which is bulk loaded
+ *  into a balanced {@link StaticKdTreeST} when time moves past it, and a
+ *  sealed bucket is dropped as a whole once it leaves the window. Nothing
+ *  is ever deleted point by point, and memory is bounded by the pairs put
+ *  during one window.
+ *
+ *  Timestamps are plain <tt>long</tt> values in any unit, such as
+ *  milliseconds. Expiry has the granularity of a bucket: a pair stays
+ *  live for between <em>window</em> - <em>window</em>/<em>buckets</em>
+ *  and <em>window</em> time units after it was put.
+ */
+public class WindowedKdTreeST<Value> {
+
+    private final long width;                       // time span of one bucket
+    private final StaticKdTreeST<Value>[] ring;     // sealed buckets, by bucket number mod ring length
+    private final long[] numbers;                   // bucket number held in each slot of the ring
+
+    private long open = Long.MIN_VALUE;             // number of the open bucket
+    private KdTreeST<Value> openTree = new KdTreeST<>();
+    private Point2D[] openPoints = new Point2D[16];
+    private Value[] openVals;
+    private int openCount;
+
+
+    /**
+     * Construct an empty symbol table remembering the last <em>window</em>
+     * time units, cut into the given number of buckets
+     *
+     * @param  window the length of the window
+     * @param  buckets the number of buckets the window is cut into
+     * @throws IllegalArgumentException if <em>window</em> or <em>buckets</em>
+     *     is not positive, or <em>buckets</em> exceeds <em>window</em>
+     */
+    @SuppressWarnings("unchecked")
+    public WindowedKdTreeST(long window, int buckets) {
+        if (window <= 0 || buckets <= 0)
+            throw new IllegalArgumentException("window and buckets must be positive");
+        if (buckets > window)
+            throw new IllegalArgumentException("a bucket must span at least one time unit");
+        width = (window + buckets - 1) / buckets;
+        ring = (StaticKdTreeST<Value>[]) new StaticKdTreeST<?>[buckets];
+        numbers = new long[buckets];
+        openVals = (Value[]) new Object[16];
+    }
+
+
+    /**
+     * Is the live window empty?
+     * @return <tt>true</tt> if no pair is live and <tt>false</tt> otherwise
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+
+    /**
+     * Returns the number of live point-value pairs. A point put again in a
+     * later bucket is counted once per bucket.
+     * @return the number of live point-value pairs
+     */
+    public int size() {
+        int N = openTree.size();
+        for (StaticKdTreeST<Value> bucket : ring)
+            if (bucket != null) N += bucket.size();
+        return N;
+    }
+
+
+    //  throws a NullPointerException if parameter is null
+    private void verify(Object o) {
+        if (o == null)
+            throw new java.lang.NullPointerException();
+    }
+
+
+    /***************************************************************************
+     *  Time.
+     ***************************************************************************/
+
+    /**
+     * Moves the window forward to end at time <em>now</em>. If time has left
+     * the open bucket, the bucket is sealed, and every sealed bucket that
+     * has left the window is dropped. Moving the window backwards has no effect.
+     *
+     * @param now the current time
+     */
+    public void advance(long now) {
+        long b = Math.floorDiv(now, width);
+        if (b <= open) return;
+
+        if (openCount > 0) seal();
+        open = b;
+        for (int i = 0; i < ring.length; i++) {
+            if (ring[i] != null && numbers[i] <= b - ring.length)
+                ring[i] = null;
+        }
+    }
+
+    //  bulk loads the open bucket into its slot of the ring
+    @SuppressWarnings("unchecked")
+    private void seal() {
+        int slot = (int) Math.floorMod(open, (long) ring.length);
+        ring[slot] = new KdTreeST<>(Arrays.copyOf(openPoints, openCount),
+                                    Arrays.copyOf(openVals, openCount)).freeze();
+        numbers[slot] = open;
+
+        openTree = new KdTreeST<>();
+        openPoints = new Point2D[16];
+        openVals = (Value[]) new Object[16];
+        openCount = 0;
+    }
+
+
+    /**
+     * Inserts the specified point-value pair at the given time, first moving
+     * the window forward to it. A pair put with a time earlier than the open
+     * bucket joins the open bucket; it is not placed in a sealed one.
+     *
+     * @param time the time of the pair
+     * @param p the point
+     * @param val the value
+     * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+     */
+    public void put(long time, Point2D p, Value val) {
+        verify(p);
+        advance(time);
+
+        if (openCount == openPoints.length) {
+            openPoints = Arrays.copyOf(openPoints, 2 * openCount);
+            openVals = Arrays.copyOf(openVals, 2 * openCount);
+        }
+        openPoints[openCount] = p;
+        openVals[openCount++] = val;
+        openTree.put(p, val);
+    }
+
+
+    /***************************************************************************
+     *  Search over the live window.
+     ***************************************************************************/
+
+    //  the sealed bucket age buckets older than the open one; null if there is none
+    private StaticKdTreeST<Value> sealed(int age) {
+        int slot = (int) Math.floorMod(open - age, (long) ring.length);
+        return ring[slot] != null && numbers[slot] == open - age ? ring[slot] : null;
+    }
+
+    /**
+     * Returns the value most recently associated with the given point.
+     * @param p the point
+     * @return the newest live value associated with the given point, and
+     *     <tt>null</tt> if the point is not live
+     * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+     */
+    public Value get(Point2D p) {
+        verify(p);
+        if (openTree.contains(p))
+            return openTree.get(p);
+        for (int age = 1; age < ring.length; age++) {
+            StaticKdTreeST<Value> bucket = sealed(age);
+            if (bucket != null && bucket.contains(p))
+                return bucket.get(p);
+        }
+        return null;
+    }
+
+
+    /**
+     * Does the live window contain the given point?
+     * @param p the point
+     * @return <tt>true</tt> if <tt>p</tt> is live and <tt>false</tt> otherwise
+     * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+     */
+    public boolean contains(Point2D p) {
+        verify(p);
+        if (openTree.contains(p))
+            return true;
+        for (StaticKdTreeST<Value> bucket : ring) {
+            if (bucket != null && bucket.contains(p))
+                return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * Returns all live points that are inside the rectangle.
+     * @return all live keys that are inside the rectangle <tt>rect</tt> as
+     * an <tt>Iterable</tt>
+     * @throws NullPointerException if <tt>rect</tt> is <tt>null</tt>
+     */
+    public Iterable<Point2D> range(RectHV rect) {
+        verify(rect);
+        SET<Point2D> set = new SET<>();
+        for (Point2D p : openTree.range(rect))
+            set.add(p);
+        for (StaticKdTreeST<Value> bucket : ring) {
+            if (bucket == null) continue;
+            for (Point2D p : bucket.range(rect))
+                set.add(p);
+        }
+        return set;
+    }
+
+
+    /**
+     * Returns a nearest live neighbor to point p, the closest of the nearest
+     * neighbors in every live bucket.
+     * @return a nearest live neighbor to point <tt>p</tt>;
+     *     <tt>null</tt> if no pair is live
+     * @throws NullPointerException if <tt>p</tt> is <tt>null</tt>
+     */
+    public Point2D nearest(Point2D p) {
+        verify(p);
+        Point2D champion = openTree.nearest(p);
+        double minDistance = champion == null ? Double.POSITIVE_INFINITY : champion.distanceSquaredTo(p);
+        for (StaticKdTreeST<Value> bucket : ring) {
+            if (bucket == null || bucket.isEmpty()) continue;
+            Point2D candidate = bucket.nearest(p);
+            double distance = candidate.distanceSquaredTo(p);
+            if (distance < minDistance) {
+                minDistance = distance;
+                champion = candidate;
+            }
+        }
+        return champion;
+    }
+}